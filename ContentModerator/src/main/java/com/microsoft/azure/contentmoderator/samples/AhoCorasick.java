@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton that finds every occurrence of a set of terms
+ * in a text in a single pass, whatever the number of terms.
+ * Matching ignores case and, like the term list screening service, only
+ * reports terms that stand as whole words. The automaton is immutable once
+ * built, so it can be shared by any number of threads.
+ * Transitions are kept in an open-addressing table of primitive longs, so
+ * large term lists stay compact and matching allocates only the results.
+ */
+public final class AhoCorasick {
+    /**
+     * An occurrence of a term in a text.
+     */
+    public static final class Match {
+        /**
+         * The offset of the first character of the term in the text.
+         */
+        public final int Index;
+
+        /**
+         * The term, as it was given to the automaton.
+         */
+        public final String Term;
+
+        Match(int index, String term) {
+            this.Index = index;
+            this.Term = term;
+        }
+    }
+
+    private static final int None = -1;
+
+    private final String[] terms;
+
+    /*
+     * Transition table: key = (state << 16) | character, value = next state.
+     */
+    private final long[] keys;
+    private final int[] targets;
+    private final int mask;
+
+    private final int[] fail;
+    private final int[] output;
+    private final int[] outputLink;
+    private final int[] depth;
+
+    /**
+     * Builds an automaton for a set of terms.
+     * @param terms the terms to find; blank terms are ignored.
+     */
+    public AhoCorasick(Collection<String> terms) {
+        List<String> kept = new ArrayList<String>(terms.size());
+        int maxStates = 1;
+        for (String term : terms) {
+            if (term != null && term.trim().length() > 0) {
+                kept.add(term);
+                maxStates += term.length();
+            }
+        }
+        this.terms = kept.toArray(new String[kept.size()]);
+
+        int capacity = Integer.highestOneBit(Math.max(16, maxStates * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.targets = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, None);
+
+        int[] parent = new int[maxStates];
+        char[] via = new char[maxStates];
+        int[] stateOutput = new int[maxStates];
+        int[] stateDepth = new int[maxStates];
+        Arrays.fill(stateOutput, None);
+        int states = 1;
+
+        // Build the trie of lower-cased terms.
+        for (int t = 0; t < this.terms.length; t++) {
+            String term = this.terms[t];
+            int state = 0;
+            for (int i = 0; i < term.length(); i++) {
+                char c = Character.toLowerCase(term.charAt(i));
+                int next = next(state, c);
+                if (next == None) {
+                    next = states++;
+                    parent[next] = state;
+                    via[next] = c;
+                    stateDepth[next] = stateDepth[state] + 1;
+                    put(state, c, next);
+                }
+                state = next;
+            }
+            if (stateOutput[state] == None) {
+                stateOutput[state] = t;
+            }
+        }
+
+        // Compute failure and output links in order of depth, since each
+        // link points to a shallower state.
+        Integer[] order = new Integer[states];
+        for (int s = 0; s < states; s++) {
+            order[s] = s;
+        }
+        final int[] depths = stateDepth;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(depths[a], depths[b]);
+            }
+        });
+
+        int[] failLink = new int[states];
+        int[] outLink = new int[states];
+        failLink[0] = 0;
+        outLink[0] = None;
+        for (int k = 1; k < states; k++) {
+            int s = order[k];
+            int p = parent[s];
+            char c = via[s];
+            int f = 0;
+            if (p != 0) {
+                f = failLink[p];
+                while (true) {
+                    int next = next(f, c);
+                    if (next != None) {
+                        f = next;
+                        break;
+                    }
+                    if (f == 0) {
+                        break;
+                    }
+                    f = failLink[f];
+                }
+            }
+            failLink[s] = f;
+            outLink[s] = stateOutput[f] != None ? f : outLink[f];
+        }
+
+        this.fail = failLink;
+        this.output = Arrays.copyOf(stateOutput, states);
+        this.outputLink = outLink;
+        this.depth = Arrays.copyOf(stateDepth, states);
+    }
+
+    /**
+     * @return the number of terms in the automaton.
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Finds the whole-word occurrences of the terms in a text.
+     * @param text the text to search.
+     * @return the occurrences, ordered by where they end in the text.
+     */
+    public List<Match> find(CharSequence text) {
+        List<Match> matches = new ArrayList<Match>();
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            while (true) {
+                int next = next(state, c);
+                if (next != None) {
+                    state = next;
+                    break;
+                }
+                if (state == 0) {
+                    break;
+                }
+                state = fail[state];
+            }
+
+            for (int s = output[state] != None ? state : outputLink[state]; s != None; s = outputLink[s]) {
+                int start = i - depth[s] + 1;
+                if (isBoundary(text, start - 1) && isBoundary(text, i + 1)) {
+                    matches.add(new Match(start, terms[output[s]]));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static boolean isBoundary(CharSequence text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    private int next(int state, char c) {
+        long key = ((long) state << 16) | c;
+        for (int slot = hash(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return targets[slot];
+            }
+            if (keys[slot] == None) {
+                return None;
+            }
+        }
+    }
+
+    private void put(int state, char c, int target) {
+        long key = ((long) state << 16) | c;
+        int slot = hash(key);
+        while (keys[slot] != None) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        targets[slot] = target;
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
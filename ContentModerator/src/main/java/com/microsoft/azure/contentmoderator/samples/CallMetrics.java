@@ -0,0 +1,360 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the latency of each Content Moderator operation, such as
+ * ImageModerations.evaluateMethod or TextModerations.screenText, along with
+ * the number of calls throttled with a 429, the number of attempts that
+ * were retries, and the bytes sent and received.
+ * Two interceptors are installed on a client. The first sees each call once,
+ * and times it from the caller's side, including rate limiter waits and
+ * retries; the second sees each attempt on the wire, and times the service
+ * alone. Any number of clients can share one instance.
+ */
+public class CallMetrics {
+    /**
+     * The statistics for one operation.
+     */
+    public static class OperationStats {
+        /**
+         * The number of calls made.
+         */
+        public final long Calls;
+
+        /**
+         * The number of calls that failed, with an error status or an I/O
+         * error.
+         */
+        public final long Errors;
+
+        /**
+         * The number of attempts the service answered with a 429.
+         */
+        public final long Throttled;
+
+        /**
+         * The latency of whole calls, as the caller saw it.
+         */
+        public final LatencyHistogram.Snapshot Latency;
+
+        /**
+         * The latency of each attempt, as the service served it.
+         */
+        public final LatencyHistogram.Snapshot ServiceLatency;
+
+        OperationStats(Operation operation) {
+            this.Calls = operation.calls.get();
+            this.Errors = operation.errors.get();
+            this.Throttled = operation.throttled.get();
+            this.Latency = operation.latency.snapshot();
+            this.ServiceLatency = operation.serviceLatency.snapshot();
+        }
+    }
+
+    /**
+     * A point-in-time copy of the metrics.
+     */
+    public static class Snapshot {
+        /**
+         * The statistics for each operation, by operation name.
+         */
+        public final SortedMap<String, OperationStats> Operations;
+
+        /**
+         * The number of attempts the service answered with a 429.
+         */
+        public final long Throttled;
+
+        /**
+         * The number of attempts beyond the first for a call.
+         */
+        public final long Retries;
+
+        /**
+         * The number of request body bytes sent.
+         */
+        public final long BytesSent;
+
+        /**
+         * The number of response body bytes received, as sent on the wire.
+         */
+        public final long BytesReceived;
+
+        Snapshot(SortedMap<String, OperationStats> operations,
+                 long throttled, long retries, long bytesSent, long bytesReceived) {
+            this.Operations = Collections.unmodifiableSortedMap(operations);
+            this.Throttled = throttled;
+            this.Retries = retries;
+            this.BytesSent = bytesSent;
+            this.BytesReceived = bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%-44s %8s %6s %5s %9s %9s %9s %9s %9s%n",
+                    "Operation", "Calls", "Errors", "429s", "p50 ms", "p90 ms", "p99 ms", "max ms", "svc p99"));
+            for (Map.Entry<String, OperationStats> entry : Operations.entrySet()) {
+                OperationStats stats = entry.getValue();
+                text.append(String.format("%-44s %8d %6d %5d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                        entry.getKey(),
+                        stats.Calls,
+                        stats.Errors,
+                        stats.Throttled,
+                        stats.Latency.percentile(50),
+                        stats.Latency.percentile(90),
+                        stats.Latency.percentile(99),
+                        stats.Latency.max(),
+                        stats.ServiceLatency.percentile(99)));
+            }
+            text.append(String.format("Throttled: %d, retries: %d, sent: %d bytes, received: %d bytes",
+                    Throttled, Retries, BytesSent, BytesReceived));
+            return text.toString();
+        }
+    }
+
+    /*
+     * The header the SDK sets on each request to name the operation it
+     * belongs to, in the form "<interface> <method>".
+     */
+    private static final String LoggingContextHeader = "x-ms-logging-context";
+
+    private static final int TooManyRequests = 429;
+
+    private static final class Operation {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong throttled = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceLatency = new LatencyHistogram();
+    }
+
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<String, Operation>();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /*
+     * The number of attempts made so far by the call running on this
+     * thread. OkHttp runs every attempt of a call on the calling thread.
+     */
+    private final ThreadLocal<int[]> attempts = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * Makes the interceptor that times whole calls. Add it with
+     * OkHttpClient.Builder.addInterceptor before any interceptor whose
+     * waits or retries should count towards the latency.
+     * @return the interceptor.
+     */
+    public Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Interceptor.Chain chain) throws IOException {
+                Request request = chain.request();
+                Operation operation = operation(request);
+                int[] count = attempts.get();
+                count[0] = 0;
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    Response response = chain.proceed(request);
+                    failed = !response.isSuccessful();
+                    return response;
+                } finally {
+                    operation.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    operation.calls.incrementAndGet();
+                    if (failed) {
+                        operation.errors.incrementAndGet();
+                    }
+                    if (count[0] > 1) {
+                        retries.addAndGet(count[0] - 1);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Makes the interceptor that times and counts each attempt. Add it with
+     * OkHttpClient.Builder.addNetworkInterceptor.
+     * @return the interceptor.
+     */
+    public Interceptor networkInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Interceptor.Chain chain) throws IOException {
+                Request request = chain.request();
+                Operation operation = operation(request);
+                attempts.get()[0]++;
+                if (request.body() != null && request.body().contentLength() > 0) {
+                    bytesSent.addAndGet(request.body().contentLength());
+                }
+
+                long start = System.nanoTime();
+                Response response = chain.proceed(request);
+                operation.serviceLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (response.code() == TooManyRequests) {
+                    operation.throttled.incrementAndGet();
+                    throttled.incrementAndGet();
+                }
+                if (response.body() == null) {
+                    return response;
+                }
+                // Count the body as the caller reads it, before it is
+                // decompressed.
+                ResponseBody body = response.body();
+                return response.newBuilder()
+                        .body(ResponseBody.create(
+                                body.contentType(),
+                                body.contentLength(),
+                                Okio.buffer(counting(body.source()))))
+                        .build();
+            }
+        };
+    }
+
+    /**
+     * Copies the metrics recorded so far.
+     * @return the copy.
+     */
+    public Snapshot snapshot() {
+        SortedMap<String, OperationStats> stats = new TreeMap<String, OperationStats>();
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            stats.put(entry.getKey(), new OperationStats(entry.getValue()));
+        }
+        return new Snapshot(stats, throttled.get(), retries.get(), bytesSent.get(), bytesReceived.get());
+    }
+
+    /**
+     * Prints a snapshot of the metrics at a fixed interval, on a background
+     * thread, until the returned handle is closed.
+     * @param period the time between reports.
+     * @param unit the unit of period.
+     * @param out where to print the reports.
+     * @return a handle that stops the reports when closed.
+     */
+    public Closeable startReporter(long period, TimeUnit unit, final PrintStream out) {
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "content-moderator-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot snapshot = snapshot();
+                if (!snapshot.Operations.isEmpty()) {
+                    out.println(snapshot);
+                }
+            }
+        }, period, period, unit);
+        return new Closeable() {
+            @Override
+            public void close() {
+                reporter.shutdownNow();
+            }
+        };
+    }
+
+    private Operation operation(Request request) {
+        String name = operationName(request);
+        Operation operation = operations.get(name);
+        if (operation == null) {
+            Operation created = new Operation();
+            operation = operations.putIfAbsent(name, created);
+            if (operation == null) {
+                operation = created;
+            }
+        }
+        return operation;
+    }
+
+    /*
+     * Names an operation after the SDK method that made the request, such
+     * as "ImageModerations.evaluateMethod". Requests that do not carry the
+     * SDK's logging header are named after their method and path, with
+     * longer path segments holding digits, which are usually IDs, left out.
+     */
+    static String operationName(Request request) {
+        String context = request.header(LoggingContextHeader);
+        if (context != null && context.trim().length() > 0) {
+            context = context.trim();
+            int space = context.lastIndexOf(' ');
+            String type = space < 0 ? context : context.substring(0, space).trim();
+            type = type.substring(type.lastIndexOf('.') + 1);
+            return space < 0 ? type : type + "." + context.substring(space + 1);
+        }
+
+        StringBuilder name = new StringBuilder(request.method()).append(' ');
+        for (String segment : request.url().pathSegments()) {
+            if (segment.length() == 0) {
+                continue;
+            }
+            name.append('/').append(isId(segment) ? "*" : segment);
+        }
+        return name.toString();
+    }
+
+    private static boolean isId(String segment) {
+        if (segment.length() <= 5) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Source counting(Source source) {
+        return new ForwardingSource(source) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    bytesReceived.addAndGet(read);
+                }
+                return read;
+            }
+        };
+    }
+}
@@ -0,0 +1,496 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.cognitiveservices.contentmoderator.KeyValuePair;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.JobInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ReviewInner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A small embedded HTTP server that receives the callbacks the review API
+ * posts when a review or job completes.
+ * The receiver listens on the loopback address unless told otherwise, so
+ * the service reaches it through a public URL that forwards to it. Register
+ * {@link #endpoint(String)} of that URL as the CallbackEndpoint of reviews
+ * and jobs: it ends in a path made up for this receiver, and posts to any
+ * other path are refused. Then wait on {@link #review(String)} or
+ * {@link #job(String)}, or call {@link #expectReview(String)} as soon as a
+ * review is created. Callbacks for reviews and jobs that were not expected
+ * this way are refused, so a post cannot complete a review or job this
+ * process did not create. All connections are served by one thread using
+ * a selector; each callback is answered with 200 OK once its body is read.
+ */
+public class CallbackReceiver implements Closeable {
+    /*
+     * The largest request, headers and body, that is accepted.
+     */
+    private static final int maxRequestBytes = 1024 * 1024;
+
+    private static final Charset Utf8 = Charset.forName("UTF-8");
+    private static final Charset Ascii = Charset.forName("US-ASCII");
+
+    /*
+     * The number of random bytes in the secret path of a receiver.
+     */
+    private static final int secretBytes = 16;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String secret;
+    private final ConcurrentMap<String, CompletableFuture<ReviewInner>> reviews =
+            new ConcurrentHashMap<String, CompletableFuture<ReviewInner>>();
+    private final ConcurrentMap<String, CompletableFuture<JobInner>> jobs =
+            new ConcurrentHashMap<String, CompletableFuture<JobInner>>();
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private CallbackReceiver(InetSocketAddress address) throws IOException {
+        byte[] random = new byte[secretBytes];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        secret = hex.toString();
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "callback-receiver");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts a receiver listening on the loopback address.
+     * @param port the port to listen on, or 0 for any free port.
+     * @return the running receiver.
+     */
+    public static CallbackReceiver start(int port) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Starts a receiver.
+     * @param address the address to listen on.
+     * @return the running receiver.
+     */
+    public static CallbackReceiver start(InetSocketAddress address) throws IOException {
+        CallbackReceiver receiver = new CallbackReceiver(address);
+        receiver.thread.start();
+        return receiver;
+    }
+
+    /**
+     * @return the local URL of the receiver, including its secret path.
+     */
+    public String endpoint() throws IOException {
+        InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        String host = address.getAddress().isAnyLocalAddress()
+                ? "localhost"
+                : address.getAddress().getHostAddress();
+        if (host.indexOf(':') >= 0) {
+            host = "[" + host + "]";
+        }
+        return endpoint("http://" + host + ":" + address.getPort());
+    }
+
+    /**
+     * @param publicUrl a public URL that forwards to the receiver, keeping
+     * the path.
+     * @return the URL to register as a CallbackEndpoint: the public URL
+     * followed by the receiver's secret path.
+     */
+    public String endpoint(String publicUrl) {
+        return (publicUrl.endsWith("/") ? publicUrl : publicUrl + "/") + secret + "/";
+    }
+
+    /**
+     * Accepts the callback of a review that this process created. The
+     * callback may arrive before the review's future is requested.
+     * @param reviewId the ID of the review.
+     */
+    public void expectReview(String reviewId) {
+        futureFor(reviews, reviewId);
+    }
+
+    /**
+     * Gets the review that a callback reports as complete.
+     * @param reviewId the ID of the review.
+     * @return a future completed with the review when its callback arrives.
+     */
+    public CompletableFuture<ReviewInner> review(String reviewId) {
+        return claim(reviews, reviewId);
+    }
+
+    /**
+     * Gets the job that a callback reports as complete.
+     * @param jobId the ID of the job.
+     * @return a future completed with the job when its callback arrives.
+     */
+    public CompletableFuture<JobInner> job(String jobId) {
+        return claim(jobs, jobId);
+    }
+
+    /**
+     * Stops the receiver. Futures that have not completed are cancelled.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (CompletableFuture<ReviewInner> future : reviews.values()) {
+            future.cancel(false);
+        }
+        for (CompletableFuture<JobInner> future : jobs.values()) {
+            future.cancel(false);
+        }
+    }
+
+    /*
+     * Hands out the future for an ID, forgetting it once it has been both
+     * handed out and completed.
+     */
+    private static <T> CompletableFuture<T> claim(
+            final ConcurrentMap<String, CompletableFuture<T>> futures,
+            final String id) {
+        final CompletableFuture<T> future = futureFor(futures, id);
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                futures.remove(id, future);
+            }
+        });
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> futureFor(
+            ConcurrentMap<String, CompletableFuture<T>> futures,
+            String id) {
+        CompletableFuture<T> future = futures.get(id);
+        if (future == null) {
+            CompletableFuture<T> created = new CompletableFuture<T>();
+            future = futures.putIfAbsent(id, created);
+            if (future == null) {
+                future = created;
+            }
+        }
+        return future;
+    }
+
+    /*
+     * The state of one connection: the bytes read so far, and the response
+     * once the request is complete.
+     */
+    private static final class Connection {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        ByteBuffer response;
+    }
+
+    private void serve() {
+        ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            SocketChannel channel = server.accept();
+                            if (channel != null) {
+                                channel.configureBlocking(false);
+                                channel.register(selector, SelectionKey.OP_READ, new Connection());
+                            }
+                        } else if (key.isReadable()) {
+                            read(key, readBuffer);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException ex) {
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Callback receiver stopped: " + ex.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ex) {
+                    // Closing anyway.
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // Closing anyway.
+            }
+        }
+    }
+
+    private void read(SelectionKey key, ByteBuffer buffer) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            channel.close();
+            return;
+        }
+        connection.request.write(buffer.array(), 0, read);
+
+        String status;
+        if (connection.request.size() > maxRequestBytes) {
+            status = "413 Payload Too Large";
+        } else {
+            byte[] request = connection.request.toByteArray();
+            int headerEnd = indexOf(request, new byte[] { '\r', '\n', '\r', '\n' }, 0);
+            if (headerEnd < 0) {
+                return;
+            }
+            status = handle(request, headerEnd + 4);
+            if (status == null) {
+                return;
+            }
+        }
+
+        connection.response = ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: close\r\n\r\n").getBytes(Ascii));
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        channel.write(connection.response);
+        if (!connection.response.hasRemaining()) {
+            channel.close();
+        }
+    }
+
+    /*
+     * Handles a request whose headers have been read. Returns the response
+     * status, or null if more of the body is needed.
+     */
+    private String handle(byte[] request, int bodyStart) {
+        String[] lines = new String(request, 0, bodyStart, Ascii).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length < 2) {
+            return "400 Bad Request";
+        }
+        if (!"POST".equals(requestLine[0])) {
+            return "405 Method Not Allowed";
+        }
+        if (!isSecretPath(requestLine[1])) {
+            return "404 Not Found";
+        }
+
+        int contentLength = -1;
+        boolean chunked = false;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException ex) {
+                    return "400 Bad Request";
+                }
+            } else if (name.equals("transfer-encoding")) {
+                chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+            }
+        }
+
+        byte[] body;
+        if (chunked) {
+            body = dechunk(request, bodyStart);
+            if (body == null) {
+                return null;
+            }
+        } else if (contentLength >= 0) {
+            if (request.length - bodyStart < contentLength) {
+                return null;
+            }
+            body = new byte[contentLength];
+            System.arraycopy(request, bodyStart, body, 0, contentLength);
+        } else {
+            return "411 Length Required";
+        }
+
+        try {
+            JsonNode callback = mapper.readTree(new String(body, Utf8));
+            if (callback == null || !callback.isObject()) {
+                return "400 Bad Request";
+            }
+            return dispatch(callback) ? "200 OK" : "404 Not Found";
+        } catch (IOException ex) {
+            return "400 Bad Request";
+        }
+    }
+
+    /*
+     * Decides whether a request target ends in the secret path. A public URL
+     * may forward from under a path of its own, so only the end is checked.
+     */
+    private boolean isSecretPath(String target) {
+        int query = target.indexOf('?');
+        String path = query < 0 ? target : target.substring(0, query);
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path.endsWith("/" + secret);
+    }
+
+    /*
+     * Decodes a chunked body, or returns null if it is not complete yet.
+     */
+    private static byte[] dechunk(byte[] request, int position) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            int lineEnd = indexOf(request, new byte[] { '\r', '\n' }, position);
+            if (lineEnd < 0) {
+                return null;
+            }
+            String sizeLine = new String(request, position, lineEnd - position, Ascii);
+            int extension = sizeLine.indexOf(';');
+            int size;
+            try {
+                size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+            } catch (NumberFormatException ex) {
+                return new byte[0];
+            }
+            position = lineEnd + 2;
+            if (size == 0) {
+                return indexOf(request, new byte[] { '\r', '\n' }, position) < 0 ? null : body.toByteArray();
+            }
+            if (request.length < position + size + 2) {
+                return null;
+            }
+            body.write(request, position, size);
+            position += size + 2;
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /*
+     * Completes the future for a review or job callback. Job callbacks carry
+     * a JobId; review callbacks carry only a ReviewId. Returns false if no
+     * such review or job is expected.
+     */
+    private boolean dispatch(JsonNode callback) {
+        String jobId = field(callback, "JobId");
+        String reviewId = field(callback, "ReviewId");
+        String type = field(callback, "CallBackType");
+
+        if (jobId != null && (type == null || type.equalsIgnoreCase("Job"))) {
+            JobInner job = new JobInner()
+                    .withId(jobId)
+                    .withReviewId(reviewId)
+                    .withStatus(field(callback, "Status"))
+                    .withWorkflowId(field(callback, "WorkFlowId"))
+                    .withType(field(callback, "ContentType"));
+            CompletableFuture<JobInner> future = jobs.get(jobId);
+            return future != null && future.complete(job);
+        } else if (reviewId != null) {
+            ReviewInner review = new ReviewInner()
+                    .withReviewId(reviewId)
+                    .withStatus(field(callback, "Status") != null ? field(callback, "Status") : "Complete")
+                    .withContentId(field(callback, "ContentId"))
+                    .withType(field(callback, "ContentType"))
+                    .withMetadata(pairs(child(callback, "Metadata")))
+                    .withReviewerResultTags(pairs(child(callback, "ReviewerResultTags")));
+            CompletableFuture<ReviewInner> future = reviews.get(reviewId);
+            return future != null && future.complete(review);
+        }
+        return false;
+    }
+
+    private static JsonNode child(JsonNode node, String name) {
+        Iterator<String> names = node.fieldNames();
+        while (names.hasNext()) {
+            String candidate = names.next();
+            if (candidate.equalsIgnoreCase(name)) {
+                return node.get(candidate);
+            }
+        }
+        return null;
+    }
+
+    private static String field(JsonNode node, String name) {
+        JsonNode value = child(node, name);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private static List<KeyValuePair> pairs(JsonNode node) {
+        if (node == null || !node.isObject()) {
+            return null;
+        }
+        List<KeyValuePair> pairs = new ArrayList<KeyValuePair>();
+        Iterator<String> names = node.fieldNames();
+        while (names.hasNext()) {
+            String name = names.next();
+            pairs.add(new KeyValuePair().withKey(name).withValue(node.get(name).asText()));
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.DetectedTerms;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ScreenInner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+/**
+ * Screens texts of any length by splitting them into chunks that fit in a
+ * single screenText call and screening the chunks concurrently.
+ * Chunks are read from the stream only as calls complete, so the number of
+ * chunks in memory is bounded by the number of calls in flight. Results
+ * are delivered in document order, with the offsets of the detected terms
+ * moved from the chunk to the original text.
+ */
+public class ChunkedScreening {
+    /**
+     * Receives the result for each chunk.
+     */
+    public interface Listener {
+        /**
+         * Called, on the thread that called {@link #screen}, for each chunk
+         * in document order.
+         * @param chunk the chunk that was screened.
+         * @param result the screening result, with term offsets in the
+         * original text.
+         */
+        void onScreened(TextChunker.Chunk chunk, ScreenInner result);
+    }
+
+    /**
+     * The most characters the service accepts in one screenText call.
+     */
+    public static final int MaxChunkChars = 1024;
+
+    private final ContentModeratorClientImpl client;
+    private final String language;
+    private final boolean autocorrect;
+    private final String listId;
+    private final boolean classify;
+    private final int workers;
+    private HedgedCalls hedging;
+
+    /**
+     * Creates a chunked screening engine.
+     * @param client the Content Moderator client.
+     * @param language the language of the text.
+     * @param autocorrect whether to autocorrect the text.
+     * @param listId the ID of a term list to screen against, or null.
+     * @param classify whether to classify the text.
+     * @param workers the number of screenText calls to have in flight.
+     */
+    public ChunkedScreening(
+            ContentModeratorClientImpl client,
+            String language,
+            boolean autocorrect,
+            String listId,
+            boolean classify,
+            int workers) {
+        this.client = client;
+        this.language = language;
+        this.autocorrect = autocorrect;
+        this.listId = listId;
+        this.classify = classify;
+        this.workers = workers;
+    }
+
+    /**
+     * Hedges the screenText calls, sending a slow call again through the
+     * hedge client of the hedging policy. Calls that screen against a term
+     * list are not hedged, since the hedge client's resource does not hold
+     * the list.
+     * @param hedging the hedging policy, or null to send each call once.
+     * @return this engine.
+     */
+    public ChunkedScreening withHedging(HedgedCalls hedging) {
+        this.hedging = listId == null ? hedging : null;
+        return this;
+    }
+
+    /**
+     * Screens a text, returning once every chunk has been screened.
+     * @param text the text to screen.
+     * @param listener receives the result for each chunk.
+     * @return the number of chunks screened.
+     */
+    public int screen(Reader text, Listener listener) throws IOException, InterruptedException {
+        TextChunker chunker = new TextChunker(text, MaxChunkChars);
+        Deque<TextChunker.Chunk> chunks = new ArrayDeque<TextChunker.Chunk>();
+        Deque<Future<ScreenInner>> results = new ArrayDeque<Future<ScreenInner>>();
+        int maxInFlight = workers * 2;
+        int count = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            TextChunker.Chunk chunk;
+            while ((chunk = chunker.next()) != null) {
+                if (results.size() >= maxInFlight) {
+                    deliver(chunks.poll(), results.poll(), listener);
+                }
+                chunks.add(chunk);
+                results.add(pool.submit(screenChunk(chunk)));
+                count++;
+            }
+            while (!results.isEmpty()) {
+                deliver(chunks.poll(), results.poll(), listener);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return count;
+    }
+
+    private Callable<ScreenInner> screenChunk(final TextChunker.Chunk chunk) {
+        return new Callable<ScreenInner>() {
+            @Override
+            public ScreenInner call() throws InterruptedException {
+                HedgedCalls.Operation<ScreenInner> screen = new HedgedCalls.Operation<ScreenInner>() {
+                    @Override
+                    public ScreenInner run(ContentModeratorClientImpl client) {
+                        return client.textModerations().screenText(
+                                language,
+                                "text/plain",
+                                chunk.Text,
+                                autocorrect,
+                                false,
+                                listId,
+                                classify);
+                    }
+                };
+                ScreenInner result = hedging != null ? hedging.call(client, screen) : screen.run(client);
+                if (result.terms() != null) {
+                    for (DetectedTerms term : result.terms()) {
+                        if (term.index() != null) {
+                            term.withIndex(term.index() + chunk.Offset);
+                        }
+                        if (term.originalIndex() != null) {
+                            term.withOriginalIndex(term.originalIndex() + chunk.Offset);
+                        }
+                    }
+                }
+                return result;
+            }
+        };
+    }
+
+    private static void deliver(
+            TextChunker.Chunk chunk,
+            Future<ScreenInner> result,
+            Listener listener) throws InterruptedException {
+        try {
+            listener.onScreened(chunk, result.get());
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+}
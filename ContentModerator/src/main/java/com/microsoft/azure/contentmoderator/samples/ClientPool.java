@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the calls of one client across several subscription keys and
+ * regional endpoints.
+ * Each call is sent to the endpoint with the fewest calls in flight, and
+ * each endpoint is paced by its own rate limiter. An endpoint that answers
+ * 429 is left out until its Retry-After has passed, and the call is sent
+ * to another endpoint; an endpoint that fails several calls in a row is
+ * left out for a while that doubles each time it happens again.
+ * Image lists, term lists, reviews and jobs belong to one Content Moderator
+ * resource, so calls that read or change them, and moderation calls that
+ * match against lists, always go to the first, primary, endpoint. Only
+ * self-contained moderation calls are spread. A pool of keys that do not
+ * belong to that resource can be limited to such calls, so that no call
+ * that depends on the team's lists or reviews reaches them.
+ */
+public class ClientPool {
+    /**
+     * A request header that pins a call to the named endpoint, and the
+     * response header that names the endpoint that served a call.
+     */
+    public static final String EndpointHeader = "X-Pool-Endpoint";
+
+    /**
+     * A subscription key and the regional endpoint it belongs to.
+     */
+    public static class Endpoint {
+        private final String name;
+        private final String url;
+        private final HttpUrl baseUrl;
+        private final String subscriptionKey;
+        private final RateLimiter rateLimiter;
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private long ejectedUntilNanos;
+        private int consecutiveErrors;
+        private int ejections;
+
+        /**
+         * Creates an endpoint.
+         * @param baseUrl the endpoint URL, such as
+         * https://westus.api.cognitive.microsoft.com.
+         * @param subscriptionKey the subscription key for the endpoint.
+         * @param rateLimiter the limiter for the key.
+         */
+        public Endpoint(String baseUrl, String subscriptionKey, RateLimiter rateLimiter) {
+            this.url = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+            this.baseUrl = HttpUrl.parse(baseUrl);
+            if (this.baseUrl == null) {
+                throw new IllegalArgumentException("Invalid endpoint URL: " + baseUrl);
+            }
+            this.name = this.baseUrl.host() + "#" + Integer.toHexString(subscriptionKey.hashCode());
+            this.subscriptionKey = subscriptionKey;
+            this.rateLimiter = rateLimiter;
+            this.ejectedUntilNanos = System.nanoTime();
+        }
+
+        /**
+         * @return the name of the endpoint, its host and a tag for its key.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the endpoint URL.
+         */
+        public String baseUrl() {
+            return url;
+        }
+
+        /**
+         * @return the number of calls in flight to the endpoint.
+         */
+        public int outstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return whether the endpoint is currently left out of routing.
+         */
+        public synchronized boolean isEjected() {
+            return System.nanoTime() - ejectedUntilNanos < 0;
+        }
+
+        private synchronized long ejectedUntil() {
+            return ejectedUntilNanos;
+        }
+
+        private synchronized void eject(long millis) {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            if (until - ejectedUntilNanos > 0) {
+                ejectedUntilNanos = until;
+            }
+        }
+
+        private synchronized void onSuccess() {
+            consecutiveErrors = 0;
+            ejections = 0;
+        }
+
+        private synchronized void onError() {
+            if (++consecutiveErrors >= ErrorsBeforeEjection) {
+                consecutiveErrors = 0;
+                long millis = Math.min(MaxEjectionMillis, BaseEjectionMillis << Math.min(ejections, 16));
+                ejections++;
+                eject(millis);
+            }
+        }
+    }
+
+    /*
+     * The number of failed calls in a row after which an endpoint is left
+     * out, and how long it is left out the first time and at most.
+     */
+    private static final int ErrorsBeforeEjection = 3;
+    private static final long BaseEjectionMillis = TimeUnit.SECONDS.toMillis(10);
+    private static final long MaxEjectionMillis = TimeUnit.MINUTES.toMillis(5);
+
+    /*
+     * The number of times a throttled call is sent again, to another
+     * endpoint if one is available, before the 429 is handed back.
+     */
+    private static final int MaxThrottledRetries = 5;
+
+    private static final int TooManyRequests = 429;
+
+    private final List<Endpoint> endpoints;
+    private final boolean moderationOnly;
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    /**
+     * Creates a pool.
+     * @param endpoints the endpoints; the first is the primary endpoint,
+     * which holds the team's lists and reviews.
+     */
+    public ClientPool(List<Endpoint> endpoints) {
+        this(endpoints, false);
+    }
+
+    /**
+     * Creates a pool.
+     * @param endpoints the endpoints; the first is the primary endpoint.
+     * @param moderationOnly whether to refuse every call that is not a
+     * self-contained moderation call, for endpoints that hold none of the
+     * team's lists and reviews.
+     */
+    public ClientPool(List<Endpoint> endpoints, boolean moderationOnly) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("A pool needs at least one endpoint.");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<Endpoint>(endpoints));
+        this.moderationOnly = moderationOnly;
+    }
+
+    /**
+     * Parses a list of endpoints of the form "region=key,region=key", where
+     * each region is a region name such as westus or an endpoint URL.
+     * @param spec the list of endpoints.
+     * @param tier the subscription tier of the keys.
+     * @return the endpoints, in the order given.
+     */
+    public static List<Endpoint> parse(String spec, RateLimiter.Tier tier) {
+        List<Endpoint> parsed = new ArrayList<Endpoint>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.length() == 0) {
+                continue;
+            }
+            int equals = entry.lastIndexOf('=');
+            if (equals <= 0 || equals == entry.length() - 1) {
+                throw new IllegalArgumentException("Expected region=key: " + entry);
+            }
+            String region = entry.substring(0, equals).trim();
+            String key = entry.substring(equals + 1).trim();
+            parsed.add(new Endpoint(regionUrl(region), key, RateLimiter.forTier(tier)));
+        }
+        return parsed;
+    }
+
+    /**
+     * @param region a region name, such as westus, or an endpoint URL.
+     * @return the endpoint URL.
+     */
+    public static String regionUrl(String region) {
+        return region.contains("://") ? region : "https://" + region + ".api.cognitive.microsoft.com";
+    }
+
+    /**
+     * @return the primary endpoint.
+     */
+    public Endpoint primary() {
+        return endpoints.get(0);
+    }
+
+    /**
+     * @return the endpoints, primary first.
+     */
+    public List<Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Makes the OkHttp interceptor that routes, paces and authenticates
+     * every call. It takes the place of a client's rate limiter and
+     * subscription key interceptors.
+     * @return the interceptor.
+     */
+    public Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Interceptor.Chain chain) throws IOException {
+                Request request = chain.request();
+                if (moderationOnly && !isSelfContained(request.url())) {
+                    throw new IOException("This pool only serves moderation calls that do not refer to lists: "
+                            + request.url().encodedPath());
+                }
+                String pinned = request.header(EndpointHeader);
+                boolean spread = pinned == null && isSelfContained(request.url());
+                if (pinned != null) {
+                    request = request.newBuilder().removeHeader(EndpointHeader).build();
+                }
+
+                for (int attempt = 0; ; attempt++) {
+                    Endpoint endpoint = spread ? choose() : pinned != null ? named(pinned) : primary();
+                    try {
+                        endpoint.rateLimiter.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the rate limiter.");
+                    }
+
+                    Response response;
+                    endpoint.outstanding.incrementAndGet();
+                    try {
+                        response = chain.proceed(retarget(request, endpoint));
+                    } catch (IOException ex) {
+                        endpoint.onError();
+                        throw ex;
+                    } finally {
+                        endpoint.outstanding.decrementAndGet();
+                    }
+
+                    if (response.code() == TooManyRequests) {
+                        long retryAfter = RateLimiter.retryAfter(response);
+                        endpoint.rateLimiter.onThrottled(retryAfter);
+                        endpoint.eject(retryAfter);
+                        if (attempt < MaxThrottledRetries) {
+                            response.close();
+                            continue;
+                        }
+                    } else if (response.code() >= 500) {
+                        endpoint.onError();
+                    } else {
+                        endpoint.rateLimiter.onSuccess();
+                        endpoint.onSuccess();
+                    }
+                    return response.newBuilder().header(EndpointHeader, endpoint.name).build();
+                }
+            }
+        };
+    }
+
+    /*
+     * Picks the endpoint with the fewest calls in flight among those not
+     * left out, starting the search at a different endpoint each time so
+     * ties are shared. If every endpoint is left out, picks the one that
+     * comes back first.
+     */
+    private Endpoint choose() {
+        int count = endpoints.size();
+        int start = (nextStart.getAndIncrement() & Integer.MAX_VALUE) % count;
+        Endpoint best = null;
+        Endpoint soonest = null;
+        for (int i = 0; i < count; i++) {
+            Endpoint endpoint = endpoints.get((start + i) % count);
+            if (endpoint.isEjected()) {
+                if (soonest == null || endpoint.ejectedUntil() - soonest.ejectedUntil() < 0) {
+                    soonest = endpoint;
+                }
+            } else if (best == null || endpoint.outstanding() < best.outstanding()) {
+                best = endpoint;
+            }
+        }
+        return best != null ? best : soonest;
+    }
+
+    private Endpoint named(String name) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.name.equals(name)) {
+                return endpoint;
+            }
+        }
+        return primary();
+    }
+
+    /*
+     * Decides whether a call can be served by any endpoint: moderation
+     * calls can, unless they refer to lists.
+     */
+    static boolean isSelfContained(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        return segments.contains("moderate")
+                && !segments.contains("Match")
+                && url.queryParameter("listId") == null;
+    }
+
+    private static Request retarget(Request request, Endpoint endpoint) {
+        HttpUrl url = request.url().newBuilder()
+                .scheme(endpoint.baseUrl.scheme())
+                .host(endpoint.baseUrl.host())
+                .port(endpoint.baseUrl.port())
+                .build();
+        return request.newBuilder()
+                .url(url)
+                .header("Ocp-Apim-Subscription-Key", endpoint.subscriptionKey)
+                .build();
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moderates images stored on the local file system, so they need not be
+ * hosted at a public URL first.
+ * Each image is streamed from the file through a small fixed buffer rather
+ * than read into a byte array as the SDK's file input methods require, and
+ * is sent by {@link ImageSubmission} with each of the evaluate, OCR and
+ * face detection calls. Directory trees are listed
+ * in parallel, and the images found are evaluated by a bounded pool of
+ * workers as the listing proceeds.
+ */
+public class FileModeration {
+    /**
+     * Receives the results for each image. Called on worker threads, so
+     * implementations must be thread-safe.
+     */
+    public interface Listener {
+        /**
+         * Called when an image has been evaluated.
+         * @param file the image file.
+         * @param imageData the moderation results for the image.
+         */
+        void onEvaluated(Path file, ImageModeration.EvaluationData imageData);
+    }
+
+    /**
+     * Describes an image that could not be evaluated.
+     */
+    public static class Failure {
+        /**
+         * The image file.
+         */
+        public final Path File;
+
+        /**
+         * The error from the last call made for the image.
+         */
+        public final String Message;
+
+        Failure(Path file, String message) {
+            this.File = file;
+            this.Message = message;
+        }
+    }
+
+    /**
+     * The outcome of moderating a directory tree.
+     */
+    public static class Report {
+        /**
+         * The number of images evaluated.
+         */
+        public final AtomicInteger Evaluated = new AtomicInteger();
+
+        /**
+         * The number of directories listed.
+         */
+        public final AtomicInteger Directories = new AtomicInteger();
+
+        /**
+         * The images that could not be evaluated.
+         */
+        public final Queue<Failure> Failures = new ConcurrentLinkedQueue<Failure>();
+    }
+
+    /*
+     * The size of the buffer each upload is streamed through.
+     */
+    private static final int UploadBufferSize = 64 * 1024;
+
+    private final ImageSubmission submission;
+    private final int workers;
+
+    /**
+     * Creates a file moderation engine.
+     * @param client the Content Moderator client whose HTTP client and
+     * endpoint to use.
+     * @param workers the number of images to evaluate at the same time.
+     */
+    public FileModeration(ContentModeratorClientImpl client, int workers) {
+        this.submission = new ImageSubmission(client);
+        this.workers = workers;
+    }
+
+    /**
+     * @param file a file.
+     * @return the media type of the file, if it is an image type the
+     * service accepts, or null.
+     */
+    public static MediaType imageType(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        String extension = dot < 0 ? "" : name.substring(dot + 1);
+        switch (extension) {
+            case "jpg":
+            case "jpeg":
+                return MediaType.parse("image/jpeg");
+            case "png":
+                return MediaType.parse("image/png");
+            case "gif":
+                return MediaType.parse("image/gif");
+            case "bmp":
+                return MediaType.parse("image/bmp");
+            case "tif":
+            case "tiff":
+                return MediaType.parse("image/tiff");
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Evaluates an image file for adult and racy content, text and faces.
+     * @param file the image file.
+     * @return the moderation results, with the file's URI as the image URL.
+     */
+    public ImageModeration.EvaluationData evaluate(Path file) throws IOException {
+        MediaType type = imageType(file);
+        if (type == null) {
+            throw new IOException("Not a supported image type: " + file);
+        }
+        ImageSubmission.Submitted submitted = submission.submit(new FileBody(file, type));
+
+        ImageModeration.EvaluationData imageData = new ImageModeration.EvaluationData();
+        imageData.ImageUrl = file.toUri().toString();
+        imageData.ImageModeration = submitted.Evaluation;
+        imageData.TextDetection = submission.ocr(submitted, "eng");
+        imageData.FaceDetection = submission.findFaces(submitted);
+        return imageData;
+    }
+
+    /**
+     * Evaluates every image in a directory tree, returning once all have
+     * been evaluated. Files that are not images are skipped.
+     * @param root the directory to walk.
+     * @param listener receives the results for each image.
+     * @return the outcome of the run.
+     */
+    public Report moderate(Path root, final Listener listener) throws InterruptedException {
+        final Report report = new Report();
+        final Semaphore pending = new Semaphore(workers);
+        final ExecutorService pool = Executors.newFixedThreadPool(workers);
+        ForkJoinPool walkers = new ForkJoinPool(Math.min(workers, Runtime.getRuntime().availableProcessors()));
+        try {
+            walkers.invoke(new DirectoryTask(root, pool, pending, listener, report));
+        } finally {
+            walkers.shutdown();
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        return report;
+    }
+
+    /*
+     * Lists one directory, forking a task for each subdirectory and handing
+     * each image to the worker pool.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final ExecutorService pool;
+        private final Semaphore pending;
+        private final Listener listener;
+        private final Report report;
+
+        DirectoryTask(Path directory, ExecutorService pool, Semaphore pending, Listener listener, Report report) {
+            this.directory = directory;
+            this.pool = pool;
+            this.pending = pending;
+            this.listener = listener;
+            this.report = report;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                report.Directories.incrementAndGet();
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry)) {
+                        DirectoryTask task = new DirectoryTask(entry, pool, pending, listener, report);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else if (imageType(entry) != null) {
+                        submit(entry);
+                    }
+                }
+            } catch (IOException ex) {
+                report.Failures.add(new Failure(directory, "Unable to list the directory: " + ex.getMessage()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            for (DirectoryTask task : subdirectories) {
+                task.join();
+            }
+        }
+
+        private void submit(final Path file) throws InterruptedException {
+            pending.acquire();
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ImageModeration.EvaluationData imageData = evaluate(file);
+                        report.Evaluated.incrementAndGet();
+                        listener.onEvaluated(file, imageData);
+                    } catch (IOException | RuntimeException ex) {
+                        report.Failures.add(new Failure(file, String.valueOf(ex.getMessage())));
+                    } finally {
+                        pending.release();
+                    }
+                }
+            });
+        }
+    }
+
+    /*
+     * A request body read from a file each time it is written, so it can be
+     * sent again on a retry or to another operation. The file is read with
+     * positional reads through a fixed buffer and never held in memory.
+     */
+    private static final class FileBody extends RequestBody {
+        private final Path file;
+        private final MediaType type;
+        private final long length;
+
+        FileBody(Path file, MediaType type) throws IOException {
+            this.file = file;
+            this.type = type;
+            this.length = Files.size(file);
+        }
+
+        @Override
+        public MediaType contentType() {
+            return type;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(UploadBufferSize, Math.max(1, length)));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long position = 0;
+                while (position < length) {
+                    buffer.clear();
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("The file got shorter while it was being sent: " + file);
+                    }
+                    sink.write(buffer.array(), 0, read);
+                    position += read;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.VideoFrameBodyItemInner;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds the sampled frames of a video to a video review.
+ * Frames are read in time order. Their images are hashed a few frames
+ * ahead on worker threads, and a frame that looks like the last frame kept
+ * (its perceptual hash is within a small Hamming distance) is dropped, so
+ * static scenes add one frame rather than hundreds. The remaining frames
+ * are packed into addVideoFrameUrl calls of several frames each, and the
+ * calls are sent concurrently under the client's rate limiter.
+ * A frame whose image cannot be hashed is kept.
+ */
+public class FrameIngestion {
+    /**
+     * Describes a frame that could not be added.
+     */
+    public static class Failure {
+        /**
+         * The frame.
+         */
+        public final VideoFrameBodyItemInner Frame;
+
+        /**
+         * The error from the addVideoFrameUrl call.
+         */
+        public final String Message;
+
+        Failure(VideoFrameBodyItemInner frame, String message) {
+            this.Frame = frame;
+            this.Message = message;
+        }
+    }
+
+    /**
+     * The outcome of an ingestion run.
+     */
+    public static class Report {
+        /**
+         * The number of frames added.
+         */
+        public final AtomicInteger Added = new AtomicInteger();
+
+        /**
+         * The number of frames dropped as near-duplicates.
+         */
+        public final AtomicInteger Duplicates = new AtomicInteger();
+
+        /**
+         * The number of addVideoFrameUrl calls sent.
+         */
+        public final AtomicInteger Requests = new AtomicInteger();
+
+        /**
+         * The frames that could not be added.
+         */
+        public final Queue<Failure> Failures = new ConcurrentLinkedQueue<Failure>();
+    }
+
+    private final ContentModeratorClientImpl client;
+    private final String teamName;
+    private final int maxDistance;
+    private final int framesPerRequest;
+    private final int workers;
+
+    /**
+     * Creates a frame ingestion stage.
+     * @param client the Content Moderator client.
+     * @param teamName the team the review belongs to.
+     * @param maxDistance the largest hash distance at which a frame counts
+     * as a duplicate of the last frame kept, or -1 to keep every frame.
+     * @param framesPerRequest the most frames to send in one call.
+     * @param workers the number of threads that hash images and send calls.
+     */
+    public FrameIngestion(
+            ContentModeratorClientImpl client,
+            String teamName,
+            int maxDistance,
+            int framesPerRequest,
+            int workers) {
+        this.client = client;
+        this.teamName = teamName;
+        this.maxDistance = maxDistance;
+        this.framesPerRequest = framesPerRequest;
+        this.workers = workers;
+    }
+
+    /**
+     * Adds frames to a video review, returning once every call is done.
+     * @param reviewId the ID of the video review.
+     * @param frames the frames, in time order.
+     * @return the outcome of the run.
+     */
+    public Report addFrames(final String reviewId, Iterator<VideoFrameBodyItemInner> frames)
+            throws InterruptedException {
+        final Report report = new Report();
+        final Semaphore pending = new Semaphore(workers);
+        int lookahead = workers * 2;
+        Deque<VideoFrameBodyItemInner> hashing = new ArrayDeque<VideoFrameBodyItemInner>();
+        Deque<Future<Long>> hashes = new ArrayDeque<Future<Long>>();
+        List<VideoFrameBodyItemInner> batch = new ArrayList<VideoFrameBodyItemInner>(framesPerRequest);
+        Long lastKept = null;
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            while (frames.hasNext() || !hashes.isEmpty()) {
+                // Keep the hashing of the next few frames under way.
+                while (frames.hasNext() && hashes.size() < lookahead) {
+                    VideoFrameBodyItemInner frame = frames.next();
+                    hashing.add(frame);
+                    hashes.add(maxDistance < 0 ? null : pool.submit(hash(frame)));
+                }
+
+                VideoFrameBodyItemInner frame = hashing.poll();
+                Long hash = result(hashes.poll());
+                if (hash != null && lastKept != null && PerceptualHash.distance(hash, lastKept) <= maxDistance) {
+                    report.Duplicates.incrementAndGet();
+                    continue;
+                }
+                lastKept = hash;
+
+                batch.add(frame);
+                if (batch.size() >= framesPerRequest) {
+                    upload(pool, pending, reviewId, batch, report);
+                    batch = new ArrayList<VideoFrameBodyItemInner>(framesPerRequest);
+                }
+            }
+            if (!batch.isEmpty()) {
+                upload(pool, pending, reviewId, batch, report);
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        return report;
+    }
+
+    private static Callable<Long> hash(final VideoFrameBodyItemInner frame) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                return PerceptualHash.of(frame.frameImage());
+            }
+        };
+    }
+
+    private static Long result(Future<Long> hash) throws InterruptedException {
+        if (hash == null) {
+            return null;
+        }
+        try {
+            return hash.get();
+        } catch (ExecutionException ex) {
+            return null;
+        }
+    }
+
+    private void upload(
+            ExecutorService pool,
+            final Semaphore pending,
+            final String reviewId,
+            final List<VideoFrameBodyItemInner> batch,
+            final Report report) throws InterruptedException {
+        pending.acquire();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    report.Requests.incrementAndGet();
+                    client.reviews().addVideoFrameUrl("application/json", teamName, reviewId, batch);
+                    report.Added.addAndGet(batch.size());
+                } catch (RuntimeException ex) {
+                    for (VideoFrameBodyItemInner frame : batch) {
+                        report.Failures.add(new Failure(frame, String.valueOf(ex.getMessage())));
+                    }
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cuts the tail latency of self-contained moderation calls, such as
+ * screenText without a term list, by hedging them.
+ * Each call is sent through the caller's client; if it has not returned
+ * by a chosen percentile of the recent latency of such calls, the same
+ * call is sent through the hedge client, and whichever answers first is
+ * used. Each call earns a fraction of a hedge, and a hedge is only sent
+ * when a whole one has been earned, so the extra load stays within that
+ * fraction of the calls however slow the service gets.
+ * The hedge client should use a key or region that no caller's client
+ * uses, so a hedge does not wait behind the call it duplicates. That key
+ * belongs to another resource, whose lists are not the team's, so calls
+ * that match against image lists or screen against term lists must not be
+ * hedged: the hedge would answer from the wrong lists.
+ */
+public class HedgedCalls implements Closeable {
+    /**
+     * A call to hedge.
+     * @param <T> the type of the result.
+     */
+    public interface Operation<T> {
+        /**
+         * Makes the call. Called once, or twice on different threads if
+         * the call is hedged.
+         * @param client the client to make the call with.
+         * @return the result.
+         */
+        T run(ContentModeratorClientImpl client);
+    }
+
+    /*
+     * The number of recent call latencies the hedge delay is taken from,
+     * the number needed before any call is hedged, and the most hedges
+     * that can be saved up for a burst of slow calls.
+     */
+    private static final int WindowSize = 256;
+    private static final int MinSamples = 20;
+    private static final double MaxSavedHedges = 10;
+
+    private final ContentModeratorClientImpl hedge;
+    private final double percentile;
+    private final double budget;
+    private final ExecutorService pool;
+
+    private final long[] window = new long[WindowSize];
+    private int samples;
+    private int next;
+    private long delayNanos;
+    private boolean delayStale = true;
+    private double credits;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    /**
+     * Creates a hedging policy.
+     * @param hedge the client hedges are sent through, on its own key or region.
+     * @param percentile the percentile of recent latency, such as 95, after
+     * which a call is hedged.
+     * @param budget the most hedges to send per call, such as 0.05.
+     */
+    public HedgedCalls(ContentModeratorClientImpl hedge, double percentile, double budget) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100.");
+        }
+        this.hedge = hedge;
+        this.percentile = percentile;
+        this.budget = budget;
+        final AtomicInteger threads = new AtomicInteger();
+        this.pool = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "content-moderator-hedging-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the number of calls made.
+     */
+    public long calls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the number of calls that were hedged.
+     */
+    public long hedged() {
+        return hedged.get();
+    }
+
+    /**
+     * @return the number of hedged calls whose hedge answered first.
+     */
+    public long hedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * @return the current hedge delay in milliseconds, or 0 while too few
+     * calls have completed to hedge.
+     */
+    public synchronized double delayMillis() {
+        return hedgeDelayNanos() / 1e6;
+    }
+
+    /**
+     * Makes a call, hedging it if it is slow.
+     * @param primary the client to send the call through first.
+     * @param operation the call.
+     * @param <T> the type of the result.
+     * @return the result of whichever of the calls answered first.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    public <T> T call(ContentModeratorClientImpl primary, Operation<T> operation) throws InterruptedException {
+        calls.incrementAndGet();
+        long delay;
+        synchronized (this) {
+            credits = Math.min(MaxSavedHedges, credits + budget);
+            delay = hedgeDelayNanos();
+        }
+
+        CompletionService<T> completion = new ExecutorCompletionService<T>(pool);
+        Future<T> first = completion.submit(timed(operation, primary));
+        Future<T> second = null;
+        try {
+            Future<T> done = delay > 0 ? completion.poll(delay, TimeUnit.NANOSECONDS) : null;
+            if (done == null && delay > 0 && spendHedge()) {
+                hedged.incrementAndGet();
+                second = completion.submit(untimed(operation, hedge));
+            }
+            if (done == null) {
+                done = completion.take();
+            }
+            try {
+                T result = done.get();
+                if (done == second) {
+                    hedgesWon.incrementAndGet();
+                }
+                return result;
+            } catch (ExecutionException ex) {
+                if (second == null) {
+                    throw rethrow(ex);
+                }
+                // One of the two failed; the other may still answer.
+                try {
+                    T result = completion.take().get();
+                    if (done == first) {
+                        hedgesWon.incrementAndGet();
+                    }
+                    return result;
+                } catch (ExecutionException other) {
+                    throw rethrow(done == first ? ex : other);
+                }
+            }
+        } finally {
+            // The primary is left to finish, so its latency is recorded
+            // even when the hedge answered first.
+            if (second != null) {
+                second.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Stops the threads the calls run on, interrupting calls that are
+     * still running.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private synchronized boolean spendHedge() {
+        if (credits < 1) {
+            return false;
+        }
+        credits -= 1;
+        return true;
+    }
+
+    private <T> Callable<T> timed(final Operation<T> operation, final ContentModeratorClientImpl client) {
+        return new Callable<T>() {
+            @Override
+            public T call() {
+                long start = System.nanoTime();
+                T result = operation.run(client);
+                record(System.nanoTime() - start);
+                return result;
+            }
+        };
+    }
+
+    private static <T> Callable<T> untimed(final Operation<T> operation, final ContentModeratorClientImpl client) {
+        return new Callable<T>() {
+            @Override
+            public T call() {
+                return operation.run(client);
+            }
+        };
+    }
+
+    /*
+     * Records the latency of a primary call that succeeded. Calls that were
+     * hedged are recorded too, once they finish, so the delay follows the
+     * latency of single calls rather than of hedged ones.
+     */
+    private synchronized void record(long nanos) {
+        window[next] = nanos;
+        next = (next + 1) % WindowSize;
+        samples = Math.min(samples + 1, WindowSize);
+        delayStale = true;
+    }
+
+    private long hedgeDelayNanos() {
+        if (samples < MinSamples) {
+            return 0;
+        }
+        if (delayStale) {
+            long[] sorted = Arrays.copyOf(window, samples);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * samples) - 1;
+            delayNanos = Math.max(1, sorted[Math.max(0, Math.min(samples - 1, rank))]);
+            delayStale = false;
+        }
+        return delayNanos;
+    }
+
+    private static RuntimeException rethrow(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+}
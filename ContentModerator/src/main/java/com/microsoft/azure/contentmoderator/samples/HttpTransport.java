@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tuned HTTP transport that any number of clients can share.
+ * The SDK builds a new OkHttpClient for each client; applying a transport
+ * to each client's builder gives them all one connection pool and one
+ * dispatcher, so connections are reused across clients and parallel work
+ * is not held to OkHttp's defaults of five idle connections and five
+ * asynchronous requests per host.
+ */
+public final class HttpTransport {
+    /**
+     * The settings of a transport.
+     */
+    public static class Options {
+        private int maxIdleConnections = 32;
+        private long keepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+        private int maxRequests = 128;
+        private int maxRequestsPerHost = 64;
+        private boolean http2 = true;
+        private boolean compression = true;
+        private long connectTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        private long readTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+
+        /**
+         * Sets the number of idle connections kept open for reuse. This also
+         * bounds how many connections parallel synchronous calls can reuse
+         * rather than open afresh.
+         * @param maxIdleConnections the number of idle connections.
+         * @return these options.
+         */
+        public Options withMaxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * Sets how long an idle connection is kept open.
+         * @param keepAlive the keep-alive duration.
+         * @param unit the unit of keepAlive.
+         * @return these options.
+         */
+        public Options withKeepAlive(long keepAlive, TimeUnit unit) {
+            this.keepAliveMillis = unit.toMillis(keepAlive);
+            return this;
+        }
+
+        /**
+         * Sets the most asynchronous requests in flight at once.
+         * @param maxRequests the number of requests.
+         * @return these options.
+         */
+        public Options withMaxRequests(int maxRequests) {
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * Sets the most asynchronous requests in flight to one host.
+         * @param maxRequestsPerHost the number of requests.
+         * @return these options.
+         */
+        public Options withMaxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Sets whether HTTP/2 may be negotiated, which multiplexes calls over
+         * one connection per host.
+         * @param http2 true to allow HTTP/2, false for HTTP/1.1 only.
+         * @return these options.
+         */
+        public Options withHttp2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        /**
+         * Sets whether responses may be gzip-compressed.
+         * @param compression true to accept compressed responses.
+         * @return these options.
+         */
+        public Options withCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Sets the connect and read timeouts.
+         * @param connectTimeout the connect timeout.
+         * @param readTimeout the read timeout.
+         * @param unit the unit of both timeouts.
+         * @return these options.
+         */
+        public Options withTimeouts(long connectTimeout, long readTimeout, TimeUnit unit) {
+            this.connectTimeoutMillis = unit.toMillis(connectTimeout);
+            this.readTimeoutMillis = unit.toMillis(readTimeout);
+            return this;
+        }
+    }
+
+    private static HttpTransport shared;
+
+    private final Options options;
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+
+    /**
+     * Creates a transport.
+     * @param options the settings of the transport.
+     */
+    public HttpTransport(Options options) {
+        this.options = options;
+        this.connectionPool = new ConnectionPool(
+                options.maxIdleConnections, options.keepAliveMillis, TimeUnit.MILLISECONDS);
+        this.dispatcher = new Dispatcher();
+        this.dispatcher.setMaxRequests(options.maxRequests);
+        this.dispatcher.setMaxRequestsPerHost(options.maxRequestsPerHost);
+    }
+
+    /**
+     * @return the transport shared by clients that are not given one,
+     * created with the default options on first use.
+     */
+    public static synchronized HttpTransport shared() {
+        if (shared == null) {
+            shared = new HttpTransport(new Options());
+        }
+        return shared;
+    }
+
+    /**
+     * Replaces the shared transport. Clients created earlier keep the
+     * transport they were created with.
+     * @param transport the new shared transport.
+     */
+    public static synchronized void setShared(HttpTransport transport) {
+        shared = transport;
+    }
+
+    /**
+     * Configures a client's HTTP client builder to use this transport.
+     * @param builder the builder.
+     */
+    public void apply(OkHttpClient.Builder builder) {
+        builder.connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .connectTimeout(options.connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(options.readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .protocols(options.http2
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1));
+        if (!options.compression) {
+            // OkHttp asks for gzip unless the request already names an encoding.
+            builder.addInterceptor(new Interceptor() {
+                @Override
+                public Response intercept(Interceptor.Chain chain) throws IOException {
+                    return chain.proceed(chain.request().newBuilder()
+                            .header("Accept-Encoding", "identity")
+                            .build());
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the connection pool shared by the clients.
+     */
+    public ConnectionPool connectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * @return the dispatcher shared by the clients.
+     */
+    public Dispatcher dispatcher() {
+        return dispatcher;
+    }
+}
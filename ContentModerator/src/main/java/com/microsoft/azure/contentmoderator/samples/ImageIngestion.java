@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.BodyModelInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ImageInner;
+import com.microsoft.rest.RestException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds large numbers of images to a custom image list.
+ * Image URLs are read from a stream as workers become free, so a manifest
+ * of any size is never held in memory. A bounded pool of workers sends the
+ * add calls, and the request rate is governed by the rate limiter attached
+ * to the client. Calls that fail with a transient error are retried with
+ * exponential backoff; the rest are reported as failures.
+ * Adding an image is not idempotent: if a call fails with a server error or
+ * a network failure after the service has added the image, the retry adds
+ * it again, and the list holds two copies under different content IDs.
+ */
+public class ImageIngestion {
+    /**
+     * Receives each image that was added to the list.
+     */
+    public interface Listener {
+        /**
+         * Called, on a worker thread, after an image is added. The image
+         * counts as added whatever the listener does, and an exception it
+         * throws is not retried.
+         * @param imageUrl the URL of the image.
+         * @param contentId the content ID the list assigned to the image.
+         */
+        void onAdded(String imageUrl, int contentId);
+    }
+
+    /**
+     * Describes an image that could not be added.
+     */
+    public static class Failure {
+        /**
+         * The URL of the image.
+         */
+        public final String ImageUrl;
+
+        /**
+         * The number of times the add call was sent.
+         */
+        public final int Attempts;
+
+        /**
+         * The error from the last attempt.
+         */
+        public final String Message;
+
+        Failure(String imageUrl, int attempts, String message) {
+            this.ImageUrl = imageUrl;
+            this.Attempts = attempts;
+            this.Message = message;
+        }
+    }
+
+    /**
+     * The outcome of an ingestion run.
+     */
+    public static class Report {
+        /**
+         * The number of images added.
+         */
+        public final AtomicInteger Added = new AtomicInteger();
+
+        /**
+         * The images that could not be added.
+         */
+        public final Queue<Failure> Failures = new ConcurrentLinkedQueue<Failure>();
+    }
+
+    /*
+     * The delay, in milliseconds, before the first retry of a failed call.
+     * Each later retry waits twice as long, plus random jitter.
+    */
+    private static final long retryDelay = 1000;
+
+    private final ContentModeratorClientImpl client;
+    private final int workers;
+    private final int maxAttempts;
+    private final Random random = new Random();
+
+    /**
+     * Creates an ingestion engine.
+     * @param client the Content Moderator client.
+     * @param workers the number of add calls to have in flight at once.
+     * @param maxAttempts the number of times to send each add call.
+     */
+    public ImageIngestion(ContentModeratorClientImpl client, int workers, int maxAttempts) {
+        this.client = client;
+        this.workers = workers;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Adds images to an image list, returning once every image has been
+     * added or has failed.
+     * @param listId the list identifier.
+     * @param imageUrls the URLs of the images to add.
+     * @param label the label to apply to each image.
+     * @param imageIds receives the content ID assigned to each image URL.
+     * @param listener notified of each image added, or null.
+     * @return the outcome of the run.
+     */
+    public Report addImages(
+            final String listId,
+            Iterator<String> imageUrls,
+            final String label,
+            final ConcurrentMap<String, Integer> imageIds,
+            final Listener listener) throws InterruptedException {
+        final Report report = new Report();
+        final Semaphore pending = new Semaphore(workers * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            while (imageUrls.hasNext()) {
+                final String imageUrl = imageUrls.next();
+                pending.acquire();
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            addImage(listId, imageUrl, label, imageIds, listener, report);
+                        } finally {
+                            pending.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        return report;
+    }
+
+    /**
+     * Reads image URLs lazily from a manifest with one URL per line.
+     * Blank lines are skipped.
+     * @param manifest the manifest to read.
+     * @return the image URLs.
+     */
+    public static Iterator<String> readManifest(final BufferedReader manifest) {
+        return new Iterator<String>() {
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null) {
+                        String line = manifest.readLine();
+                        if (line == null) {
+                            return false;
+                        }
+                        line = line.trim();
+                        if (line.length() > 0) {
+                            next = line;
+                        }
+                    }
+                    return true;
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void addImage(
+            String listId,
+            String imageUrl,
+            String label,
+            ConcurrentMap<String, Integer> imageIds,
+            Listener listener,
+            Report report) {
+        BodyModelInner bodyModelInner = new BodyModelInner();
+        bodyModelInner.withDataRepresentation("URL");
+        bodyModelInner.withValue(imageUrl);
+
+        int contentId;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ImageInner result = client.listManagementImages().addImageUrlInput(
+                        listId,
+                        "application/json",
+                        bodyModelInner,
+                        null,
+                        label);
+                contentId = Integer.parseInt(result.contentId());
+                break;
+            } catch (RuntimeException ex) {
+                if (attempt >= maxAttempts || !isTransient(ex)) {
+                    report.Failures.add(new Failure(imageUrl, attempt, String.valueOf(ex.getMessage())));
+                    return;
+                }
+                try {
+                    long backoff = retryDelay << (attempt - 1);
+                    Thread.sleep(backoff + (long) (random.nextDouble() * backoff));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    report.Failures.add(new Failure(imageUrl, attempt, "Interrupted."));
+                    return;
+                }
+            }
+        }
+
+        imageIds.put(imageUrl, contentId);
+        report.Added.incrementAndGet();
+        if (listener != null) {
+            listener.onAdded(imageUrl, contentId);
+        }
+    }
+
+    /*
+     * Decides whether a failed call is worth sending again: timeouts,
+     * throttling, server errors and network failures are.
+    */
+    static boolean isTransient(RuntimeException ex) {
+        if (ex instanceof RestException && ((RestException) ex).response() != null) {
+            int code = ((RestException) ex).response().code();
+            return code == 408 || code == 429 || code >= 500;
+        }
+        Throwable cause = ex.getCause();
+        return cause instanceof IOException && !(cause instanceof InterruptedIOException);
+    }
+}
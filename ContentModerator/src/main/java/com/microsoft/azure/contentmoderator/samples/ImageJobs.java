@@ -12,6 +12,13 @@ import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.Job
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.JobInner;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 public class ImageJobs {
     /*
@@ -27,58 +34,96 @@ public class ImageJobs {
             "https://moderatorsampleimages.blob.core.windows.net/samples/sample2.jpg";
 
     /*
-     * The number of seconds to delay after a review has finished before
-     * getting the review results from the server.
+     * The longest time, in minutes, to wait for the job to finish and its
+     * callback to arrive.
     */
-    private static final int latencyDelay = 45;
+    private static final int callbackTimeout = 30;
 
     /*
-     * The callback endpoint for completed reviews.
-     * Reviews show up for reviewers on your team.
-     * As reviewers complete reviews, results are sent to the
-     * callback endpoint using an HTTP POST request.
+     * The most job status requests to send per second.
     */
-    private static final String CallbackEndpoint = "https%3A%2F%2Frequestb.in%2Fvxke1mvx";
+    private static final double pollsPerSecond = 1;
 
     public static void execute(ContentModeratorClientImpl client) throws IOException, InterruptedException {
-        System.out.println("Create moderation job for an image.");
-        ContentInner contentInner = new ContentInner();
-        contentInner.withContentValue(ImageUrl);
+        // Reviews show up for reviewers on your team.
+        // As reviewers complete reviews, results are sent to the
+        // callback endpoint using an HTTP POST request.
+        // The service can only reach a public callback URL; without one,
+        // no callback is registered and the job's status is polled.
+        try (CallbackReceiver receiver = Samples.CallbackUrl != null
+                ? CallbackReceiver.start(Samples.CallbackPort)
+                : null) {
+            String callbackEndpoint = receiver != null ? receiver.endpoint(Samples.CallbackUrl) : null;
 
-        // The WorkflowName contains the nameof the workflow defined in the online review tool.
-        // See the quickstart article to learn more.
-        JobIdInner jobResult = client.reviews().createJob(
-                Samples.TeamName,
-                "image",
-                "contentID",
-                WorkflowName,
-                "application/json",
-                contentInner,
-                CallbackEndpoint);
+            System.out.println("Create moderation job for an image.");
+            ContentInner contentInner = new ContentInner();
+            contentInner.withContentValue(ImageUrl);
 
-        String jobId = jobResult.jobId();
-        // Record the job ID.
-        System.out.println("Job id created: " + jobId);
+            // The WorkflowName contains the nameof the workflow defined in the online review tool.
+            // See the quickstart article to learn more.
+            JobIdInner jobResult = client.reviews().createJob(
+                    Samples.TeamName,
+                    "image",
+                    "contentID",
+                    WorkflowName,
+                    "application/json",
+                    contentInner,
+                    callbackEndpoint);
 
-        Thread.sleep(2000);
-        System.out.println();
+            String jobId = jobResult.jobId();
+            // Record the job ID.
+            System.out.println("Job id created: " + jobId);
+            CompletableFuture<JobInner> callback = receiver != null ? receiver.job(jobId) : null;
 
-        System.out.println("Get job status before review.");
-        JobInner job = client.reviews().getJobDetails(
-                Samples.TeamName, jobId);
-        System.out.println("Job status:" + job.status());
-        System.out.println();
-        System.out.println("Perform manual reviews on the Content Moderator site.");
-        System.out.println("Then, press any key to continue.");
-        System.in.read();
+            // Track the job's status while waiting for its callback, and use
+            // whichever reports the finished job first. The wait only fails
+            // if both do.
+            try (JobStatusTracker tracker = new JobStatusTracker(
+                    client, Samples.TeamName, pollsPerSecond, 2, callbackTimeout, TimeUnit.MINUTES)) {
+                System.out.println();
+                System.out.println("Perform manual reviews on the Content Moderator site.");
+                System.out.println("Waiting up to " + callbackTimeout + " minutes for the job "
+                        + (callback != null ? "callback at " + Samples.CallbackUrl : "status") + ".");
 
-        System.out.println();
-        System.out.println("Waiting " + latencyDelay + " seconds for results to propagate.");
-        Thread.sleep(latencyDelay * 1000);
+                CompletableFuture<JobInner> finished = callback != null
+                        ? FirstSuccessful(callback, tracker.track(jobId))
+                        : tracker.track(jobId);
+                try {
+                    JobInner job = finished.get(callbackTimeout, TimeUnit.MINUTES);
+                    System.out.println("Job status:" + job.status());
+                    if (job.reviewId() != null) {
+                        System.out.println("Review id: " + job.reviewId());
+                    }
+                } catch (TimeoutException ex) {
+                    System.out.println("The job did not finish in time.");
+                } catch (ExecutionException ex) {
+                    System.out.println("Unable to get the job status: " + ex.getCause().getMessage());
+                }
+            }
+        }
+    }
 
-        System.out.println("Get job status after review.");
-        job = client.reviews().getJobDetails(
-                Samples.TeamName, jobId);
-        System.out.println("Job status:" + job.status());
+    /*
+     * Combines two sources of the same result.
+     * @return A future completed with the first result either source
+     * produces, or with the last error once both have failed.
+    */
+    private static <T> CompletableFuture<T> FirstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final AtomicInteger failures = new AtomicInteger();
+        BiConsumer<T, Throwable> complete = new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                if (error == null) {
+                    result.complete(value);
+                } else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(
+                            error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                }
+            }
+        };
+        first.whenComplete(complete);
+        second.whenComplete(complete);
+        return result;
     }
 }
@@ -3,20 +3,19 @@ package com.microsoft.azure.contentmoderator.samples;
 import com.microsoft.azure.cognitiveservices.contentmoderator.BodyMetadata;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.*;
 
-import java.io.IOException;
+import java.io.*;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class ImageList {
     /*
-     * The minimum amount of time, im milliseconds, to wait between calls
-     * to the Image List API.
-    */
-    private static final int throttleRate = 3000;
-
-    /*
-     * The number of minutes to delay after updating the search index before
-     * performing image match operations against a the list.
+     * The longest time, in minutes, to wait after updating the search index
+     * before performing image match operations against a the list.
+     * The wait ends as soon as a probe shows the index has propagated.
     */
     private static final double latencyDelay = 0.5;
 
@@ -101,13 +100,47 @@ public class ImageList {
                 "https://moderatorsampleimages.blob.core.windows.net/samples/sample16.png"
     };
 
+    /*
+     * The number of images to add to the list at the same time, and the
+     * number of times to try adding each image.
+    */
+    private static final int IngestionWorkers = 8;
+    private static final int IngestionMaxAttempts = 3;
+
     /*
      * A dictionary that tracks the ID assigned to each image URL when
      * the image is added to the list.
      * Indexed by URL.
     */
-    private static final Hashtable<String, Integer> ImageIdMap =
-            new Hashtable<String, Integer>();
+    private static final ConcurrentHashMap<String, Integer> ImageIdMap =
+            new ConcurrentHashMap<String, Integer>();
+
+    /*
+     * The largest Hamming distance between perceptual hashes at which an
+     * image is still sent to the service to be matched against the list.
+    */
+    private static final int MatchHashDistance = 10;
+
+    /*
+     * A local index of the perceptual hashes of the images in the list,
+     * kept in step with the images added and removed by this sample.
+     * The list is created by the sample, and matches are made against it
+     * alone, so images that are not close to any of them are not sent to
+     * the service, because they cannot match.
+    */
+    private static final PerceptualHashIndex ImageHashIndex = new PerceptualHashIndex();
+
+    /*
+     * The perceptual hash of each image added to the list.
+     * Indexed by URL.
+    */
+    private static final Hashtable<String, Long> ImageHashMap =
+            new Hashtable<String, Long>();
+
+    /*
+     * False once an image in the list could not be hashed.
+    */
+    private static volatile boolean ImageHashIndexComplete = true;
 
     public static void execute(ContentModeratorClientImpl client) throws InterruptedException, IOException {
         // Create a custom image list and record the ID assigned to it.
@@ -118,8 +151,8 @@ public class ImageList {
             int listId = creationResult.id();
 
             // Perform various operations using the image list.
-            AddImages(client, listId, images.Sports.Urls, images.Sports.Label);
-            AddImages(client, listId, images.Swimsuit.Urls, images.Swimsuit.Label);
+            AddImages(client, listId, Arrays.asList(images.Sports.Urls).iterator(), images.Sports.Label);
+            AddImages(client, listId, Arrays.asList(images.Swimsuit.Urls).iterator(), images.Swimsuit.Label);
 
             GetAllImageIds(client, listId);
             UpdateListDetails(client, creationResult);
@@ -128,13 +161,12 @@ public class ImageList {
             // Be sure to refresh search index
             RefreshSearchIndex(client, listId);
 
-            // WriteLine();
-            System.out.println(
-                    String.format("Waiting %f minutes to allow the server time to propagate the index changes.", latencyDelay));
-            Thread.sleep((int) (latencyDelay * 60 * 1000));
+            // Wait until an image added to the list matches it.
+            WaitForIndex(client, listId,
+                    ImageIdMap.isEmpty() ? null : ImageIdMap.keySet().iterator().next(), true);
 
             // Match images against the image list.
-            MatchImages(client, ImagesToMatch);
+            MatchImages(client, listId, ImagesToMatch);
 
             // Remove images
             RemoveImages(client, listId, images.Corrections);
@@ -142,13 +174,11 @@ public class ImageList {
             // Be sure to refresh search index
             RefreshSearchIndex(client, listId);
 
-            System.out.println();
-            System.out.println(
-                    String.format("Waiting %f minutes to allow the server time to propagate the index changes.", latencyDelay));
-            Thread.sleep((int) (latencyDelay * 60 * 1000));
+            // Wait until the removed image no longer matches the list.
+            WaitForIndex(client, listId, images.Corrections[0], false);
 
             // Match images again against the image list. The removed image should not get matched.
-            MatchImages(client, ImagesToMatch);
+            MatchImages(client, listId, ImagesToMatch);
 
             // Delete all images from the list.
             DeleteAllImages(client, listId);
@@ -167,7 +197,7 @@ public class ImageList {
      * @param client The Content Moderator client
      * @return The response object from the operation.
     */
-    private static ImageListInner CreateCustomList(ContentModeratorClientImpl client) throws InterruptedException {
+    private static ImageListInner CreateCustomList(ContentModeratorClientImpl client) {
         // Create the request body.
         BodyInner listDetails = new BodyInner();
         listDetails.withName("MyList");
@@ -179,7 +209,6 @@ public class ImageList {
         System.out.println("Creating list {listDetails.Name}.");
         ImageListInner result = client.listManagementImageLists().create(
                 "application/json", listDetails);
-        Thread.sleep(throttleRate);
         System.out.println("Response:");
         System.out.println("Image id: " + result.id());
         System.out.println("Image name: " + result.name());
@@ -191,6 +220,8 @@ public class ImageList {
      * Adds images to an image list.
      * Images are assigned content IDs when they are added to the list.
      * Track the content ID assigned to each image.
+     * The images are added concurrently, and the URLs are only read from
+     * imagesToAdd as workers become free, so it can stream a large manifest.
      * @param client The Content Moderator client.
      * @param listId The list identifier.
      * @param imagesToAdd The images to add.
@@ -199,37 +230,47 @@ public class ImageList {
     private static void AddImages(
             ContentModeratorClientImpl client,
             int listId,
-            String[] imagesToAdd, String label) throws InterruptedException {
-        for (String imageUrl : imagesToAdd)
+            Iterator<String> imagesToAdd, String label) throws InterruptedException {
+        System.out.println();
+        System.out.println("Adding images to list " + listId + " with label " + label + ".");
+
+        ImageIngestion ingestion = new ImageIngestion(client, IngestionWorkers, IngestionMaxAttempts);
+        ImageIngestion.Report report = ingestion.addImages(
+                String.valueOf(listId),
+                imagesToAdd,
+                label,
+                ImageIdMap,
+                new ImageIngestion.Listener() {
+                    @Override
+                    public void onAdded(String imageUrl, int contentId) {
+                        System.out.println("Added " + imageUrl + " with content Id " + contentId + ".");
+                        IndexImage(imageUrl, contentId);
+                    }
+                });
+
+        System.out.println("Images added: " + report.Added.get());
+        for (ImageIngestion.Failure failure : report.Failures)
         {
-            System.out.println();
-            System.out.println("Adding " + imageUrl + " to list " + listId + " with label " + label + ".");
-            try
-            {
-                BodyModelInner bodyModelInner = new BodyModelInner();
-                bodyModelInner.withDataRepresentation("URL");
-                bodyModelInner.withValue(imageUrl);
-                ImageInner result = client.listManagementImages().addImageUrlInput(
-                        listId + "",
-                        "application/json",
-                        bodyModelInner,
-                        null,
-                        label);
-
-                ImageIdMap.put(imageUrl, Integer.parseInt(result.contentId()));
-                System.out.println("Response:");
-                System.out.println("Image Content Id: " + result.contentId());
-                System.out.println("Image Tracking Id: " + result.trackingId());
-                System.out.println("Image Status: " + result.status());
-            }
-            catch (Exception ex)
-            {
-                System.out.println("Unable to add image to list. Caught {ex.GetType().FullName}: {ex.Message}");
-            }
-            finally
-            {
-                Thread.sleep(throttleRate);
-            }
+            System.out.println("Unable to add image " + failure.ImageUrl + " to list after "
+                    + failure.Attempts + " attempt(s): " + failure.Message);
+        }
+    }
+
+    /*
+     * Adds the images listed in a manifest file, one URL per line, to an
+     * image list. The manifest is streamed rather than read into memory.
+     * @param client The Content Moderator client.
+     * @param listId The list identifier.
+     * @param manifestFile The path of the manifest file.
+     * @param label The label to apply to each image.
+    */
+    static void AddImagesFromManifest(
+            ContentModeratorClientImpl client,
+            int listId,
+            String manifestFile, String label) throws IOException, InterruptedException {
+        try (BufferedReader manifest =
+                     new BufferedReader(new FileReader(new File(manifestFile)))) {
+            AddImages(client, listId, ImageIngestion.readManifest(manifest), label);
         }
     }
 
@@ -243,7 +284,7 @@ public class ImageList {
     */
     private static void RemoveImages(
             ContentModeratorClientImpl client, int listId,
-            String[] imagesToRemove) throws InterruptedException {
+            String[] imagesToRemove) {
         for (String imageUrl : imagesToRemove)
         {
             if (!ImageIdMap.containsKey(imageUrl)) continue;
@@ -254,9 +295,13 @@ public class ImageList {
 
             String result = client.listManagementImages().deleteImage(
                     listId + "", imageId + "");
-            Thread.sleep(throttleRate);
 
             ImageIdMap.remove(imageUrl);
+            Long hash = ImageHashMap.remove(imageUrl);
+            if (hash != null)
+            {
+                ImageHashIndex.remove(hash, imageId);
+            }
 
             System.out.println("Response:");
             System.out.println("Result: " + result);
@@ -270,11 +315,10 @@ public class ImageList {
      * @return The response object from the operation.
     */
     private static ImageIdsInner GetAllImageIds(
-            ContentModeratorClientImpl client, int listId) throws InterruptedException {
+            ContentModeratorClientImpl client, int listId) {
         System.out.println();
         System.out.println("Getting all image IDs for list {listId}.");
         ImageIdsInner result = client.listManagementImages().getAllImageIds(String.valueOf(listId));
-        Thread.sleep(throttleRate);
         System.out.println("Response:");
         System.out.println("Content Source: " + result.contentSource());
         System.out.println("Tracking Id: " + result.trackingId());
@@ -294,7 +338,7 @@ public class ImageList {
     */
     private static ImageListInner UpdateListDetails(
             ContentModeratorClientImpl client,
-            ImageListInner imageList) throws InterruptedException {
+            ImageListInner imageList) {
         System.out.println();
         System.out.println("Updating details for list {listId}.");
 
@@ -308,7 +352,6 @@ public class ImageList {
                 imageList.id().toString(),
                 "application/json",
                 listDetails);
-        Thread.sleep(throttleRate);
 
         System.out.println("Response:");
         System.out.println("Image id: " + result.id());
@@ -324,13 +367,12 @@ public class ImageList {
      * @return The response object from the operation.
     */
     private static ImageListInner GetListDetails(
-            ContentModeratorClientImpl client, int listId) throws InterruptedException {
+            ContentModeratorClientImpl client, int listId) {
         System.out.println();
         System.out.println("Getting details for list {listId}.");
 
         ImageListInner result = client.listManagementImageLists().getDetails(
                 String.valueOf(listId));
-        Thread.sleep(throttleRate);
 
         System.out.println("Response:");
         System.out.println("Image id: " + result.id());
@@ -346,19 +388,91 @@ public class ImageList {
      * @return The response object from the operation.
     */
     private static RefreshIndexInner RefreshSearchIndex(
-            ContentModeratorClientImpl client, int listId) throws InterruptedException {
+            ContentModeratorClientImpl client, int listId) {
         System.out.println();
         System.out.println("Refreshing the search index for list {listId}.");
 
         RefreshIndexInner result = client.listManagementImageLists().refreshIndexMethod(
                 String.valueOf(listId));
-        Thread.sleep(throttleRate);
         System.out.println("Response:");
         System.out.println("Image id: " + result.contentSourceId());
         System.out.println("Image name: " + result.trackingId());
         return result;
     }
 
+    /*
+     * Adds the perceptual hash of an image to the local index.
+     * If the image cannot be hashed, the local pre-filter is turned off,
+     * since it no longer mirrors the list.
+     * @param imageUrl The URL of the image.
+     * @param contentId The content ID the list assigned to the image.
+    */
+    private static void IndexImage(String imageUrl, int contentId) {
+        try
+        {
+            long hash = PerceptualHash.of(imageUrl);
+            ImageHashIndex.add(hash, contentId);
+            ImageHashMap.put(imageUrl, hash);
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Unable to hash " + imageUrl + "; matching will use the service only. " + ex.getMessage());
+            ImageHashIndexComplete = false;
+        }
+    }
+
+    /*
+     * Checks the local index to see whether an image could match the list.
+     * @param imageUrl The URL of the image.
+     * @return False only if no image in the list looks similar.
+    */
+    private static boolean MayMatch(String imageUrl) {
+        if (!ImageHashIndexComplete)
+        {
+            return true;
+        }
+        try
+        {
+            return ImageHashIndex.containsWithin(PerceptualHash.of(imageUrl), MatchHashDistance);
+        }
+        catch (IOException ex)
+        {
+            return true;
+        }
+    }
+
+    /*
+     * Waits for the search index changes to propagate, probing with an
+     * image whose match result shows whether the refreshed index is in use.
+     * @param client The Content Moderator client.
+     * @param listId The list identifier.
+     * @param probeUrl The URL of the image to probe with, or null to wait
+     * the full latencyDelay.
+     * @param expectMatch Whether the image should match the refreshed index.
+    */
+    private static void WaitForIndex(
+            ContentModeratorClientImpl client, int listId,
+            String probeUrl, boolean expectMatch) throws InterruptedException {
+        System.out.println();
+        System.out.println(
+                String.format("Waiting up to %f minutes to allow the server time to propagate the index changes.", latencyDelay));
+        long timeout = (long) (latencyDelay * 60 * 1000);
+        if (probeUrl == null)
+        {
+            Thread.sleep(timeout);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean ready = IndexReadiness.await(
+                IndexReadiness.imageMatch(client, String.valueOf(listId), probeUrl, expectMatch),
+                timeout,
+                TimeUnit.MILLISECONDS);
+        System.out.println(ready
+                ? "Index ready after " + (System.currentTimeMillis() - start) + " ms."
+                : "Index not confirmed ready; continuing.");
+    }
+
     /*
      * Matches images against an image list.
      * @param client The Content Moderator client.
@@ -367,19 +481,28 @@ public class ImageList {
     */
     private static void MatchImages(
             ContentModeratorClientImpl client,
+            int listId,
             String[] imagesToMatch) throws InterruptedException {
         for (String imageUrl : imagesToMatch)
         {
             System.out.println();
             System.out.println("Matching image {imageUrl} against list {listId}.");
 
+            if (!MayMatch(imageUrl))
+            {
+                System.out.println("No image in the list looks similar; skipping the match call.");
+                System.out.println("Is Match: false");
+                continue;
+            }
+
             BodyModelInner bodyModel = new BodyModelInner();
             bodyModel.withDataRepresentation("URL");
             bodyModel.withValue(imageUrl);
             MatchResponseInner result = client.imageModerations().matchUrlInput(
                     "application/json",
-                    bodyModel);
-            Thread.sleep(throttleRate);
+                    bodyModel,
+                    String.valueOf(listId),
+                    false);
             System.out.println("Response:");
             System.out.println("Cache id: " + result.cacheID());
             System.out.println("Tracking Id: " + result.trackingId());
@@ -394,12 +517,13 @@ public class ImageList {
      * @param listId The list identifier.
     */
     private static void DeleteAllImages(
-            ContentModeratorClientImpl client, int listId) throws InterruptedException {
+            ContentModeratorClientImpl client, int listId) {
         System.out.println();
         System.out.println("Deleting all images from list {listId}.");
         String result = client.listManagementImages().deleteAllImages(
                 String.valueOf(listId));
-        Thread.sleep(throttleRate);
+        ImageHashIndex.clear();
+        ImageHashMap.clear();
         System.out.println("Response:");
         System.out.println(result);
     }
@@ -410,13 +534,12 @@ public class ImageList {
      * @param listId The list identifier.
     */
     private static void DeleteCustomList(
-            ContentModeratorClientImpl client, int listId) throws InterruptedException {
+            ContentModeratorClientImpl client, int listId) {
         System.out.println();
         System.out.println("Deleting list {listId}.");
 
         String result = client.listManagementImageLists().delete(
                 String.valueOf(listId));
-        Thread.sleep(throttleRate);
         System.out.println("Response:");
         System.out.println(result);
     }
@@ -427,12 +550,11 @@ public class ImageList {
      * @return The response object from the operation.
     */
     private static List<ImageListInner> GetAllListIds(
-            ContentModeratorClientImpl client) throws InterruptedException {
+            ContentModeratorClientImpl client) {
         System.out.println();
         System.out.println("Getting all image list IDs.");
 
         List<ImageListInner> result = client.listManagementImageLists().getAllImageLists();
-        Thread.sleep(throttleRate);
         System.out.println("Response:");
         System.out.println("Size of image list: " + result.size());
         return result;
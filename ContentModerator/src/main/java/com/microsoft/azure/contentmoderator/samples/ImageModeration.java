@@ -2,9 +2,15 @@ package com.microsoft.azure.contentmoderator.samples;
 
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.*;
 
+import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.serializer.JacksonAdapter;
+
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.*;
 
 public class ImageModeration {
     /*
@@ -32,6 +38,12 @@ public class ImageModeration {
          * The face detection results;
         */
         public FoundFacesInner FaceDetection;
+
+        /*
+         * The text screening results for the detected text, or null if
+         * no text was detected.
+        */
+        public ScreenInner TextScreening;
     }
 
     /*
@@ -41,41 +53,346 @@ public class ImageModeration {
     */
     private static String ImageUrlFile = "ImageFiles.txt";
 
+    /*
+     * The directory of local images to evaluate in file mode. Its
+     * subdirectories are searched too, and files that are not JPEG, PNG,
+     * GIF, BMP or TIFF images are skipped.
+     * Relative paths are ralative the execution directory.
+    */
+    private static String ImageDirectory = "Images";
+
+    /*
+     * The name of the file to contain the output from the evaluation of
+     * local images. Each line holds the JSON results for one image, in the
+     * order the images completed.
+     * Relative paths are ralative the execution directory.
+     */
+    private static String FileOutputFile = "FileModerationOutput.ndjson";
+
     /*
      * The name of the file to contain the output from the evaluation.
+     * Each line holds the JSON results for one image, in input order.
+     * Relative paths are ralative the execution directory.
+     */
+    private static String OutputFile = "ModerationOutput.ndjson";
+
+    /*
+     * The name of the file that records how much of the input has been
+     * committed to the output file. If a run stops part way through, the
+     * next run resumes after the last committed image.
+     * Relative paths are ralative the execution directory.
+     */
+    private static String CheckpointFile = "ModerationOutput.checkpoint";
+
+    /*
+     * The number of results to write between checkpoints.
+     */
+    private static final int CheckpointBatchSize = 100;
+
+    /*
+     * The number of images to evaluate at the same time in concurrent mode.
+     * All calls still go through the rate limiter attached to the client,
+     * so this bounds the requests in flight, not the request rate.
+    */
+    private static final int MaxConcurrentImages = 8;
+
+    /*
+     * The directory that caches moderation results between runs, so
+     * images seen before, even under another URL, cost no API calls.
      * Relative paths are ralative the execution directory.
      */
-    private static String OutputFile = "ModerationOutput.json";
+    private static String CacheDirectory = "ModerationCache";
+
+    /*
+     * The limits on the result cache: the number of entries, their total
+     * size in bytes, and the number of days an entry stays valid.
+     */
+    private static final int CacheMaxEntries = 100000;
+    private static final long CacheMaxBytes = 1024L * 1024 * 1024;
+    private static final int CacheTimeToLiveDays = 30;
+
+    /*
+     * The result cache, opened when the sample runs.
+     */
+    private static ModerationCache Cache;
+
+    /*
+     * The ID of the term list to screen the text detected in images
+     * against, or null to screen for profanity only.
+     */
+    private static String TextScreeningListId = null;
+
+    /*
+     * Screens the text detected in images, created when first used.
+     */
+    private static OcrScreening Screening;
 
-    public static void execute(ContentModeratorClientImpl client) throws IOException, InterruptedException {
-        // Create an object in which to store the image moderation results.
-        List<EvaluationData> evaluationData = new ArrayList<EvaluationData>();
+    public static void execute(ContentModeratorClientImpl client) throws IOException {
+        OpenCache();
 
-        // Read image URLs from the input file and evaluate each one.
-        try (BufferedReader inputStream =
+        // Read image URLs from the input file and evaluate each one,
+        // writing each result as soon as it is available.
+        try (ResultWriter writer = OpenResultWriter();
+             BufferedReader inputStream =
                      new BufferedReader(new FileReader(new File(ImageUrlFile)))) {
             String line;
+            long offset = 0;
             while ((line = inputStream.readLine()) != null)
             {
-                if (line.length() > 0)
+                long lineOffset = offset++;
+                if (writer.isDone(lineOffset))
                 {
-                    EvaluationData imageData = EvaluateImage(client, line);
-                    evaluationData.add(imageData);
+                    continue;
                 }
+                if (line.length() == 0)
+                {
+                    writer.write(lineOffset, null);
+                    continue;
+                }
+                EvaluationData imageData;
+                try
+                {
+                    imageData = EvaluateImageCached(client, line, null);
+                }
+                catch (InterruptedIOException ex)
+                {
+                    throw ex;
+                }
+                catch (IOException | RuntimeException ex)
+                {
+                    // Failed images are reported here, left out of the output
+                    // and retried by the next run that resumes.
+                    System.out.println("Unable to evaluate " + line + ": " + ex.getMessage());
+                    writer.fail(lineOffset);
+                    continue;
+                }
+                writer.write(lineOffset, imageData);
+            }
+        }
+        PrintScreeningSummary();
+    }
+
+    /*
+     * Evaluates the images listed in the input file concurrently.
+     * Each image gets its evaluate, OCR and face detection calls sent at
+     * the same time, and its detected text is screened while the faces are
+     * detected. Up to MaxConcurrentImages images are in flight at once.
+     * The input file is read only as fast as images complete.
+     * @param client The Content Moderator API wrapper to use.
+    */
+    public static void executeConcurrently(final ContentModeratorClientImpl client)
+            throws IOException, InterruptedException {
+        OpenCache();
+
+        ExecutorService imagePool = Executors.newFixedThreadPool(MaxConcurrentImages);
+        final ExecutorService callPool = Executors.newFixedThreadPool(MaxConcurrentImages * 2);
+        final Semaphore pending = new Semaphore(MaxConcurrentImages * 2);
+
+        try (final ResultWriter writer = OpenResultWriter()) {
+            try (BufferedReader inputStream =
+                         new BufferedReader(new FileReader(new File(ImageUrlFile)))) {
+                String line;
+                long offset = 0;
+                while ((line = inputStream.readLine()) != null)
+                {
+                    final long lineOffset = offset++;
+                    if (writer.isDone(lineOffset))
+                    {
+                        continue;
+                    }
+                    if (line.length() == 0)
+                    {
+                        writer.write(lineOffset, null);
+                        continue;
+                    }
+
+                    final String imageUrl = line;
+                    pending.acquire();
+                    imagePool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            EvaluationData imageData = null;
+                            try {
+                                imageData = EvaluateImageCached(client, imageUrl, callPool);
+                            } catch (Exception ex) {
+                                // Failed images are reported here, left out of the output
+                                // and retried by the next run that resumes.
+                                System.out.println("Unable to evaluate " + imageUrl + ": " + ex.getMessage());
+                            }
+                            try {
+                                if (imageData != null) {
+                                    writer.write(lineOffset, imageData);
+                                } else {
+                                    writer.fail(lineOffset);
+                                }
+                            } catch (IOException ex) {
+                                System.out.println("Unable to write results for " + imageUrl + ": " + ex.getMessage());
+                            } finally {
+                                pending.release();
+                            }
+                        }
+                    });
+                }
+            } finally {
+                imagePool.shutdown();
+                imagePool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                callPool.shutdown();
+            }
+        }
+        PrintScreeningSummary();
+    }
+
+    /*
+     * Evaluates the images stored under ImageDirectory, without first
+     * hosting them at a public URL. Up to MaxConcurrentImages images are in
+     * flight at once, and each result is written as soon as it is available.
+     * @param client The Content Moderator API wrapper to use.
+    */
+    public static void executeFiles(ContentModeratorClientImpl client)
+            throws IOException, InterruptedException {
+        final SerializerAdapter<?> serializer = new JacksonAdapter();
+        try (final BufferedWriter writer = Files.newBufferedWriter(
+                Paths.get(FileOutputFile), Charset.forName("UTF-8"))) {
+            FileModeration moderation = new FileModeration(client, MaxConcurrentImages);
+            FileModeration.Report report = moderation.moderate(
+                    Paths.get(ImageDirectory),
+                    new FileModeration.Listener() {
+                        @Override
+                        public void onEvaluated(Path file, EvaluationData imageData) {
+                            try {
+                                String json = serializer.serialize(imageData);
+                                synchronized (writer) {
+                                    writer.write(json);
+                                    writer.newLine();
+                                }
+                            } catch (IOException ex) {
+                                System.out.println("Unable to write results for " + file + ": " + ex.getMessage());
+                            }
+                        }
+                    });
+
+            System.out.println(String.format("Evaluated %d images in %d directories.",
+                    report.Evaluated.get(), report.Directories.get()));
+            for (FileModeration.Failure failure : report.Failures) {
+                System.out.println("Unable to evaluate " + failure.File + ": " + failure.Message);
+            }
+        }
+    }
+
+    /*
+     * Opens the output file, resuming from the checkpoint of an earlier run.
+     * @return The result writer.
+    */
+    private static ResultWriter OpenResultWriter() throws IOException {
+        ResultWriter writer = new ResultWriter(
+                new File(OutputFile), new File(CheckpointFile), CheckpointBatchSize);
+        if (writer.resumeOffset() > 0)
+        {
+            System.out.println("Resuming after " + writer.resumeOffset() + " lines of " + ImageUrlFile
+                    + ", retrying " + writer.retries() + " images that failed.");
+        }
+        return writer;
+    }
+
+    /*
+     * Opens the result cache if it is not open yet.
+    */
+    private static synchronized void OpenCache() throws IOException {
+        if (Cache == null)
+        {
+            Cache = new ModerationCache(
+                    new File(CacheDirectory),
+                    CacheMaxEntries,
+                    CacheMaxBytes,
+                    CacheTimeToLiveDays,
+                    TimeUnit.DAYS);
+        }
+    }
+
+    /*
+     * Reports how many detected texts were screened, and how many were
+     * repeats of a text screened before.
+    */
+    private static synchronized void PrintScreeningSummary() {
+        if (Screening != null)
+        {
+            System.out.println(String.format("Screened %d distinct detected texts; %d repeated texts reused a result.",
+                    Screening.calls(), Screening.reused()));
+        }
+    }
+
+    /*
+     * Creates the text screening stage if it is not created yet.
+     * @param client The Content Moderator API wrapper to use.
+     * @return The text screening stage.
+    */
+    private static synchronized OcrScreening OpenScreening(ContentModeratorClientImpl client) {
+        if (Screening == null)
+        {
+            Screening = new OcrScreening(client, "eng", TextScreeningListId, MaxConcurrentImages);
+        }
+        return Screening;
+    }
+
+    /*
+     * Returns the cached results for an image, evaluating it only if the
+     * image content has not been seen before.
+     * @param client The Content Moderator API wrapper to use.
+     * @param imageUrl The URL of the image to evaluate.
+     * @param executor The executor to send the OCR and face detection calls
+     * on, or null to send the calls one after another.
+     * @return Aggregated image moderation results for the image.
+    */
+    private static EvaluationData EvaluateImageCached(
+            ContentModeratorClientImpl client, String imageUrl, ExecutorService executor)
+            throws IOException {
+        String key = null;
+        try
+        {
+            key = Cache.key(imageUrl);
+            EvaluationData cached = Cache.get(key, imageUrl);
+            if (cached != null)
+            {
+                return cached;
             }
         }
+        catch (IOException ex)
+        {
+            System.out.println("Unable to check the cache for " + imageUrl + ": " + ex.getMessage());
+        }
 
-        // Save the moderation results to a file.
-        try (BufferedWriter writer =
-                     new BufferedWriter(new FileWriter(new File(OutputFile))))
+        EvaluationData imageData;
+        try
         {
-            writer.write(evaluationData.toString());
+            if (executor == null)
+            {
+                imageData = EvaluateImage(client, imageUrl);
+            }
+            else
+            {
+                imageData = EvaluateImageConcurrently(client, imageUrl, executor);
+            }
         }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while evaluating " + imageUrl + ".");
+        }
+        catch (ExecutionException ex)
+        {
+            throw new IOException("Unable to evaluate " + imageUrl + ".", ex.getCause());
+        }
+
+        if (key != null)
+        {
+            Cache.put(key, imageData);
+        }
+        return imageData;
     }
 
     /*
      * Evaluates an image using the Image Moderation APIs.
-     * This method throttles calls to the API.
+     * Calls are throttled by the rate limiter attached to the client.
      * Your Content Moderator service key will have a requests per second (RPS)
      * rate limit, and the SDK will throw an exception with a 429 error code
      * if you exceed that limit. A free tier key has a 1 RPS rate limit.
@@ -84,7 +401,8 @@ public class ImageModeration {
      * @return Aggregated image moderation results for the image.
     */
     private static EvaluationData EvaluateImage(
-            ContentModeratorClientImpl client, String imageUrl) throws InterruptedException {
+            ContentModeratorClientImpl client, String imageUrl)
+            throws InterruptedException, ExecutionException {
         BodyModelInner url = new BodyModelInner();
         EvaluationData imageData = new EvaluationData();
         url.withDataRepresentation("URL");
@@ -97,7 +415,6 @@ public class ImageModeration {
                         "application/json",
                         url,
                         true);
-        Thread.sleep(1000);
 
         // Detect and extract text.
         imageData.TextDetection =
@@ -107,7 +424,9 @@ public class ImageModeration {
                         url,
                         true,
                         false);
-        Thread.sleep(1000);
+
+        // Screen the detected text while the faces are detected.
+        Future<ScreenInner> textScreening = OpenScreening(client).screen(imageData.TextDetection);
 
         // Detect faces.
         imageData.FaceDetection =
@@ -115,8 +434,63 @@ public class ImageModeration {
                         "application/json",
                         url,
                         true);
-        Thread.sleep(1000);
 
+        imageData.TextScreening = textScreening.get();
+        return imageData;
+    }
+
+    /*
+     * Evaluates an image, sending the OCR and face detection calls at the
+     * same time as the evaluate call.
+     * @param client The Content Moderator API wrapper to use.
+     * @param imageUrl The URL of the image to evaluate.
+     * @param executor The executor to run the OCR and face detection calls on.
+     * @return Aggregated image moderation results for the image.
+    */
+    private static EvaluationData EvaluateImageConcurrently(
+            final ContentModeratorClientImpl client, String imageUrl, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        final BodyModelInner url = new BodyModelInner();
+        EvaluationData imageData = new EvaluationData();
+        url.withDataRepresentation("URL");
+        url.withValue(imageUrl);
+        imageData.ImageUrl = url.value();
+
+        // Detect and extract text.
+        Future<OCRInner> textDetection = executor.submit(new Callable<OCRInner>() {
+            @Override
+            public OCRInner call() {
+                return client.imageModerations().oCRUrlInput(
+                        "eng",
+                        "application/json",
+                        url,
+                        true,
+                        false);
+            }
+        });
+
+        // Detect faces.
+        Future<FoundFacesInner> faceDetection = executor.submit(new Callable<FoundFacesInner>() {
+            @Override
+            public FoundFacesInner call() {
+                return client.imageModerations().findFacesUrlInput(
+                        "application/json",
+                        url,
+                        true);
+            }
+        });
+
+        // Evaluate for adult and racy content on this thread.
+        imageData.ImageModeration =
+                client.imageModerations().evaluateUrlInput(
+                        "application/json",
+                        url,
+                        true);
+
+        imageData.TextDetection = textDetection.get();
+        Future<ScreenInner> textScreening = OpenScreening(client).screen(imageData.TextDetection);
+        imageData.FaceDetection = faceDetection.get();
+        imageData.TextScreening = textScreening.get();
         return imageData;
     }
 }
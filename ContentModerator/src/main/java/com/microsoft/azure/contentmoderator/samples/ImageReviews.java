@@ -1,13 +1,26 @@
 package com.microsoft.azure.contentmoderator.samples;
 
 import com.microsoft.azure.cognitiveservices.contentmoderator.CreateReviewBodyItemMetadataItem;
+import com.microsoft.azure.cognitiveservices.contentmoderator.KeyValuePair;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.CreateReviewBodyItemInner;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ReviewInner;
+import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.serializer.JacksonAdapter;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ImageReviews {
     /*
@@ -38,16 +51,17 @@ public class ImageReviews {
     }
 
     /*
-     * The minimum amount of time, in milliseconds, to wait between calls
-     * to the Image List API.
+     * The longest time, in minutes, to wait for the reviews to be completed
+     * and their callbacks to arrive.
      */
-    private static final int throttleRate = 2000;
+    private static final int callbackTimeout = 30;
 
     /*
-     * The number of seconds to delay after a review has finished before
-     * getting the review results from the server.
+     * The delay, in seconds, between polls of the review status when no
+     * public callback URL is set, and the longest delay it backs off to.
      */
-    private static final int latencyDelay = 45;
+    private static final int pollDelay = 2;
+    private static final int maxPollDelay = 60;
 
     /*
      * The name of the log file to create.
@@ -60,14 +74,6 @@ public class ImageReviews {
      */
     private static final String Subteam = null;
 
-    /*
-     * The callback endpoint for completed reviews.
-     * Reviews show up for reviewers on your team.
-     * As reviewers complete reviews, results are sent to the
-     * callback endpoint using an HTTP POST request.
-     */
-    private static final String CallbackEndpoint = "https://requestb.in/vxke1mvx";
-
     /*
      * The media type for the item to review.
      * Valid values are "image", "text", and "video".
@@ -96,65 +102,330 @@ public class ImageReviews {
      * to the created review ID for each item.
      */
     private static List<String> reviewItems =
-            new ArrayList<String>();
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /*
+     * The number of review items to send in each createReviews call, and
+     * the number of calls to have in flight at once.
+     */
+    private static final int ReviewBatchSize = ReviewSubmission.DefaultBatchSize;
+    private static final int ConcurrentReviewBatches = 4;
+
+    /*
+     * Whether to send for review the images ImageModeration evaluated,
+     * read from ModerationOutputFile, rather than every image in ImageUrls.
+     * Only the evaluated images whose scores fall between the approve and
+     * reject thresholds below are sent.
+     */
+    private static final boolean TriageModerationOutput = false;
+
+    /*
+     * The results of ImageModeration to triage, one JSON result per line.
+     * Relative paths are ralative the execution directory.
+     */
+    private static String ModerationOutputFile = "ModerationOutput.ndjson";
+
+    /*
+     * The adult and racy scores below which an image is approved, and at
+     * or above which it is rejected, without a review.
+     */
+    private static final ReviewTriage.Band AdultBand = new ReviewTriage.Band(0.2, 0.9);
+    private static final ReviewTriage.Band RacyBand = new ReviewTriage.Band(0.2, 0.9);
 
     public static void execute(ContentModeratorClientImpl client) throws IOException, InterruptedException {
-        CreateReviews(client);
-        GetReviewDetails(client);
+        // Reviews show up for reviewers on your team.
+        // As reviewers complete reviews, results are sent to the
+        // callback endpoint using an HTTP POST request.
+        // The service can only reach a public callback URL; without one,
+        // no callback is registered and the reviews are polled.
+        try (CallbackReceiver receiver = Samples.CallbackUrl != null
+                ? CallbackReceiver.start(Samples.CallbackPort)
+                : null) {
+            if (TriageModerationOutput) {
+                CreateReviewsFromModeration(client, receiver, ModerationOutputFile);
+            } else {
+                CreateReviews(client, receiver);
+            }
+            GetReviewDetails(client);
 
-        System.out.println();
-        System.out.println(
-                String.format("Waiting %d seconds for results to propagate.", latencyDelay));
-        Thread.sleep(latencyDelay * 1000);
+            System.out.println();
+            System.out.println("Perform manual reviews on the Content Moderator site.");
+            if (receiver != null) {
+                System.out.println(String.format("Waiting up to %d minutes for review callbacks at %s.",
+                        callbackTimeout, Samples.CallbackUrl));
+                AwaitReviews(receiver);
+            } else {
+                // The service cannot reach the receiver's local address.
+                System.out.println(String.format(
+                        "No public callback URL is set; polling the reviews for up to %d minutes.",
+                        callbackTimeout));
+                PollReviews(client);
+            }
 
-        GetReviewDetails(client);
+            GetReviewDetails(client);
+        }
     }
 
     /*
      * Create the reviews using the fixed list of images.
      * @param client The Content Moderator client.
+     * @param receiver The receiver to post the completed reviews to, or
+     * null to register no callback.
      */
-    private static void CreateReviews(ContentModeratorClientImpl client) throws InterruptedException {
-        System.out.println("Creating reviews for the following images:");
+    private static void CreateReviews(ContentModeratorClientImpl client, CallbackReceiver receiver)
+            throws InterruptedException {
+        CreateReviews(client, receiver, Arrays.asList(ImageUrls).iterator());
+    }
+
+    /*
+     * Creates reviews for the images listed in a manifest file, one URL per
+     * line. The manifest is streamed rather than read into memory.
+     * @param client The Content Moderator client.
+     * @param receiver The receiver to post the completed reviews to, or
+     * null to register no callback.
+     * @param manifestFile The path of the manifest file.
+     */
+    static void CreateReviewsFromManifest(
+            ContentModeratorClientImpl client,
+            CallbackReceiver receiver,
+            String manifestFile) throws IOException, InterruptedException {
+        try (BufferedReader manifest =
+                     new BufferedReader(new FileReader(new File(manifestFile)))) {
+            CreateReviews(client, receiver, ImageIngestion.readManifest(manifest));
+        }
+    }
 
-        // Create the structure to hold the request body information.
-        List<CreateReviewBodyItemInner> requestInfo =
-                new ArrayList<CreateReviewBodyItemInner>();
+    /*
+     * Creates reviews for the images in the output of ImageModeration whose
+     * scores leave them in doubt, approving or rejecting the rest without
+     * a review. The output is streamed rather than read into memory.
+     * @param client The Content Moderator client.
+     * @param receiver The receiver to post the completed reviews to, or
+     * null to register no callback.
+     * @param moderationOutputFile The path of the moderation output file.
+     */
+    static void CreateReviewsFromModeration(
+            ContentModeratorClientImpl client,
+            CallbackReceiver receiver,
+            String moderationOutputFile) throws IOException, InterruptedException {
+        ReviewTriage triage = new ReviewTriage(AdultBand, RacyBand);
+        ReviewTriage.Report report = new ReviewTriage.Report();
+        try (BufferedReader results =
+                     new BufferedReader(new FileReader(new File(moderationOutputFile)))) {
+            final Iterator<ImageModeration.EvaluationData> toReview = triage.toReview(
+                    readResults(results),
+                    new ReviewTriage.Listener() {
+                        @Override
+                        public void onDecided(ImageModeration.EvaluationData imageData, ReviewTriage.Decision decision) {
+                            System.out.println(String.format(" - %s; %s (adult %.3f, racy %.3f).",
+                                    imageData.ImageUrl,
+                                    decision == ReviewTriage.Decision.APPROVE ? "approved" : "rejected",
+                                    imageData.ImageModeration.adultClassificationScore(),
+                                    imageData.ImageModeration.racyClassificationScore()));
+                        }
+                    },
+                    report);
+            CreateReviews(client, receiver, new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return toReview.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return toReview.next().ImageUrl;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+        System.out.println(String.format("Approved %d and rejected %d images without a review; sent %d for review.",
+                report.Approved.get(), report.Rejected.get(), report.Reviewed.get()));
+    }
+
+    /*
+     * Reads moderation results lazily, one JSON result per line.
+     * @param results The moderation output.
+     * @return The results.
+     */
+    private static Iterator<ImageModeration.EvaluationData> readResults(BufferedReader results) {
+        final SerializerAdapter<?> serializer = new JacksonAdapter();
+        final Iterator<String> lines = ImageIngestion.readManifest(results);
+        return new Iterator<ImageModeration.EvaluationData>() {
+            @Override
+            public boolean hasNext() {
+                return lines.hasNext();
+            }
+
+            @Override
+            public ImageModeration.EvaluationData next() {
+                try {
+                    return serializer.deserialize(lines.next(), ImageModeration.EvaluationData.class);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /*
+     * Create the reviews for a stream of images, sending them in batches.
+     * @param client The Content Moderator client.
+     * @param receiver The receiver to post the completed reviews to, or
+     * null to register no callback.
+     * @param imageUrls The URLs of the images to review.
+     */
+    private static void CreateReviews(
+            ContentModeratorClientImpl client,
+            final CallbackReceiver receiver,
+            final Iterator<String> imageUrls) throws InterruptedException {
+        System.out.println("Creating reviews for the following images:");
+        final String callbackEndpoint = receiver != null ? receiver.endpoint(Samples.CallbackUrl) : null;
 
         CreateReviewBodyItemMetadataItem reviewBodyItemMetadataItem =
                 new CreateReviewBodyItemMetadataItem();
         reviewBodyItemMetadataItem.withKey(MetadataKey);
         reviewBodyItemMetadataItem.withValue(MetadataValue);
         // Create some standard metadata to add to each item.
-        List<CreateReviewBodyItemMetadataItem> metadata =
+        final List<CreateReviewBodyItemMetadataItem> metadata =
                 new ArrayList<CreateReviewBodyItemMetadataItem>();
         metadata.add(reviewBodyItemMetadataItem);
 
-        // Populate the request body information and the initial cached review information.
-        for (int i = 0; i < ImageUrls.length; i++)
-        {
-            CreateReviewBodyItemInner reviewBodyItemInner = new CreateReviewBodyItemInner();
-            System.out.println(" - " + ImageUrls[i] + "; with id = " + i + ".");
-            reviewBodyItemInner.withType(MediaType);
-            reviewBodyItemInner.withContentId(i + "");
-            reviewBodyItemInner.withCallbackEndpoint(CallbackEndpoint);
-            reviewBodyItemInner.withContent(ImageUrls[i]);
-            reviewBodyItemInner.withMetadata(metadata);
-            // Add the item informaton to the request information.
-            requestInfo.add(reviewBodyItemInner);
+        // Populate the request body information for each image as the
+        // pipeline asks for it.
+        Iterator<CreateReviewBodyItemInner> requestInfo = new Iterator<CreateReviewBodyItemInner>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return imageUrls.hasNext();
+            }
+
+            @Override
+            public CreateReviewBodyItemInner next() {
+                String imageUrl = imageUrls.next();
+                CreateReviewBodyItemInner reviewBodyItemInner = new CreateReviewBodyItemInner();
+                System.out.println(" - " + imageUrl + "; with id = " + i + ".");
+                reviewBodyItemInner.withType(MediaType);
+                reviewBodyItemInner.withContentId(i + "");
+                reviewBodyItemInner.withCallbackEndpoint(callbackEndpoint);
+                reviewBodyItemInner.withContent(imageUrl);
+                reviewBodyItemInner.withMetadata(metadata);
+                i++;
+                return reviewBodyItemInner;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        ReviewSubmission.Report report;
+        try (ReviewSubmission submission = new ReviewSubmission(
+                client, Samples.TeamName, ReviewBatchSize, ConcurrentReviewBatches)) {
+            report = submission.submit(requestInfo, new ReviewSubmission.Listener() {
+                @Override
+                public void onCreated(CreateReviewBodyItemInner item, String reviewId) {
+                    reviewItems.add(reviewId);
+                    if (receiver != null) {
+                        receiver.expectReview(reviewId);
+                    }
+                    System.out.println("Id: " + reviewId + " for item ID " + item.contentId());
+                }
+            });
         }
 
-        List<String> reviewIds = client.reviews().createReviews(
-                Samples.TeamName, "application/json", requestInfo);
+        System.out.println(String.format("Created %d reviews in %d batches.",
+                report.Created.get(), report.Batches.get()));
+        for (ReviewSubmission.Failure failure : report.Failures)
+        {
+            System.out.println("Unable to create a review for item ID " + failure.Item.contentId()
+                    + ": " + failure.Message);
+        }
+    }
 
-        System.out.println("ReviewIds: ");
-        for (int i = 0; i < reviewIds.size(); i++)
+    /*
+     * Waits for the callback of each review, up to the callback timeout.
+     * @param receiver The receiver the callbacks are posted to.
+     */
+    private static void AwaitReviews(CallbackReceiver receiver) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(callbackTimeout);
+        for (String reviewId : reviewItems)
         {
-            reviewItems.add(reviewIds.get(i));
-            System.out.println("Id: " + reviewIds.get(i));
+            try {
+                ReviewInner review = receiver.review(reviewId).get(
+                        Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                System.out.println("Review " + review.reviewId() + " for item ID " + review.contentId()
+                        + " was completed.");
+                if (review.reviewerResultTags() != null) {
+                    for (KeyValuePair tag : review.reviewerResultTags()) {
+                        System.out.println("    " + tag.key() + ": " + tag.value());
+                    }
+                }
+            } catch (TimeoutException ex) {
+                System.out.println("No callback received for review " + reviewId + ".");
+            } catch (ExecutionException ex) {
+                System.out.println("Unable to read the callback for review " + reviewId + ": "
+                        + ex.getCause().getMessage());
+            }
         }
+    }
+
+    /*
+     * Polls the reviews until each is complete, up to the callback timeout,
+     * backing off while none of them changes.
+     * @param client The Content Moderator client.
+     */
+    private static void PollReviews(ContentModeratorClientImpl client) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(callbackTimeout);
+        List<String> pending = new ArrayList<String>(reviewItems);
+        long delay = TimeUnit.SECONDS.toMillis(pollDelay);
+        try (ReviewSubmission submission = new ReviewSubmission(
+                client, Samples.TeamName, ReviewBatchSize, ConcurrentReviewBatches)) {
+            while (!pending.isEmpty())
+            {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                Thread.sleep(Math.min(delay, remaining));
 
-        Thread.sleep(throttleRate);
+                List<CompletableFuture<ReviewInner>> reviews = submission.getReviews(pending);
+                List<String> stillPending = new ArrayList<String>();
+                for (int i = 0; i < reviews.size(); i++)
+                {
+                    try {
+                        ReviewInner review = reviews.get(i).get();
+                        if (JobStatusTracker.isFinished(review.status())) {
+                            System.out.println("Review " + review.reviewId() + " for item ID " + review.contentId()
+                                    + " was completed.");
+                            continue;
+                        }
+                    } catch (ExecutionException ex) {
+                        System.out.println("Unable to get review " + pending.get(i) + ": "
+                                + ex.getCause().getMessage());
+                    }
+                    stillPending.add(pending.get(i));
+                }
+                delay = stillPending.size() < pending.size()
+                        ? TimeUnit.SECONDS.toMillis(pollDelay)
+                        : Math.min(TimeUnit.SECONDS.toMillis(maxPollDelay), (long) (delay * 1.5));
+                pending = stillPending;
+            }
+        }
+        for (String reviewId : pending)
+        {
+            System.out.println("Review " + reviewId + " was not completed in time.");
+        }
     }
 
     /*
@@ -164,15 +435,21 @@ public class ImageReviews {
     private static void GetReviewDetails(ContentModeratorClientImpl client) throws InterruptedException {
         System.out.println();
         System.out.println("Getting review details:");
-        for (String reviewId : reviewItems)
-        {
-            ReviewInner reviewDetail = client.reviews().getReview(
-                    Samples.TeamName, reviewId);
-
-            System.out.println(
-                    "Review " + reviewDetail.reviewId() + " for item ID " + reviewDetail.contentId() + " is " +
-                            reviewDetail.status() + ".");
-            Thread.sleep(throttleRate);
+        try (ReviewSubmission submission = new ReviewSubmission(
+                client, Samples.TeamName, ReviewBatchSize, ConcurrentReviewBatches)) {
+            List<CompletableFuture<ReviewInner>> reviews = submission.getReviews(reviewItems);
+            for (int i = 0; i < reviews.size(); i++)
+            {
+                try {
+                    ReviewInner reviewDetail = reviews.get(i).get();
+                    System.out.println(
+                            "Review " + reviewDetail.reviewId() + " for item ID " + reviewDetail.contentId() + " is " +
+                                    reviewDetail.status() + ".");
+                } catch (ExecutionException ex) {
+                    System.out.println("Unable to get review " + reviewItems.get(i) + ": "
+                            + ex.getCause().getMessage());
+                }
+            }
         }
     }
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.EvaluateInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.FoundFacesInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.OCRInner;
+import com.microsoft.rest.RestException;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+
+/**
+ * Sends an image held in a request body, rather than a byte array, to the
+ * Image Moderation APIs.
+ * The body is written again for each operation, so an image streamed from
+ * a file is never held in memory, and one body serves the evaluate, OCR
+ * and face detection calls for the image.
+ * The calls go through the client's own HTTP client, so they share its
+ * rate limiter, retries and metrics.
+ */
+public class ImageSubmission {
+    /**
+     * An image that has been sent and evaluated.
+     */
+    public static class Submitted {
+        /**
+         * The adult and racy content results for the image.
+         */
+        public final EvaluateInner Evaluation;
+
+        private final RequestBody image;
+
+        Submitted(EvaluateInner evaluation, RequestBody image) {
+            this.Evaluation = evaluation;
+            this.image = image;
+        }
+    }
+
+    private static final String ModeratePath = "contentmoderator/moderate/v1.0/ProcessImage";
+
+    private final ContentModeratorClientImpl client;
+    private final HttpUrl baseUrl;
+
+    /**
+     * Creates an image submission engine.
+     * @param client the Content Moderator client whose HTTP client and
+     * endpoint to use.
+     */
+    public ImageSubmission(ContentModeratorClientImpl client) {
+        this.client = client;
+        String base = client.baseUrl();
+        if (!base.contains("://")) {
+            base = "https://" + base;
+        }
+        this.baseUrl = HttpUrl.parse(base).newBuilder().addPathSegments(ModeratePath).build();
+    }
+
+    /**
+     * Sends an image and evaluates it for adult and racy content.
+     * @param image the image data. The body is sent again by the operations
+     * that follow, so it must be able to be written more than once.
+     * @return the submitted image.
+     */
+    public Submitted submit(RequestBody image) throws IOException {
+        String content = send(operation("Evaluate").addQueryParameter("CacheImage", "false").build(), image);
+        return new Submitted(client.serializerAdapter().deserialize(content, EvaluateInner.class), image);
+    }
+
+    /**
+     * Detects and extracts the text in a submitted image.
+     * @param submitted the submitted image.
+     * @param language the language of the text.
+     * @return the text detection results.
+     */
+    public OCRInner ocr(Submitted submitted, String language) throws IOException {
+        String content = send(
+                operation("OCR")
+                        .addQueryParameter("language", language)
+                        .addQueryParameter("CacheImage", "false")
+                        .addQueryParameter("enhanced", "false")
+                        .build(),
+                submitted.image);
+        return client.serializerAdapter().deserialize(content, OCRInner.class);
+    }
+
+    /**
+     * Detects the faces in a submitted image.
+     * @param submitted the submitted image.
+     * @return the face detection results.
+     */
+    public FoundFacesInner findFaces(Submitted submitted) throws IOException {
+        String content = send(operation("FindFaces").addQueryParameter("CacheImage", "false").build(), submitted.image);
+        return client.serializerAdapter().deserialize(content, FoundFacesInner.class);
+    }
+
+    private HttpUrl.Builder operation(String name) {
+        return baseUrl.newBuilder().addPathSegment(name);
+    }
+
+    /*
+     * Posts a request through the client's HTTP client, throwing a
+     * RestException for error responses as the SDK does.
+     */
+    private String send(HttpUrl url, RequestBody body) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(body)
+                .header("x-ms-logging-context", "com.microsoft.azure.contentmoderator.samples.ImageSubmission "
+                        + url.pathSegments().get(url.pathSegments().size() - 1))
+                .build();
+        try (Response response = client.httpClient().newCall(request).execute()) {
+            String content = response.body() != null ? response.body().string() : "";
+            if (!response.isSuccessful()) {
+                throw new RestException(
+                        "Status code " + response.code() + ", " + content,
+                        retrofit2.Response.<ResponseBody>error(
+                                ResponseBody.create(response.body() != null ? response.body().contentType() : null, content),
+                                response));
+            }
+            return content;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.DetectedTerms;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.BodyModelInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.MatchResponseInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ScreenInner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for a refreshed list search index to propagate.
+ * The list management API has no call that reports when a refreshed index
+ * is in use, so readiness is detected by probing with a known item: an
+ * image or term that should now match the list, or one that should no
+ * longer match it. Probes are sent with exponential backoff until the
+ * expected answer comes back or the deadline passes.
+ */
+public final class IndexReadiness {
+    /**
+     * Checks whether the index has propagated.
+     */
+    public interface Probe {
+        /**
+         * @return true once the index gives the expected answer.
+         */
+        boolean isReady();
+    }
+
+    /*
+     * The delay, in milliseconds, before the first probe and the longest
+     * delay between probes.
+     */
+    private static final long initialDelay = 1000;
+    private static final long maxDelay = 8000;
+
+    private IndexReadiness() {
+    }
+
+    /**
+     * Probes until the index is ready or the deadline passes.
+     * A probe that throws is treated as not ready.
+     * @param probe the readiness check.
+     * @param timeout the longest time to wait.
+     * @param unit the unit of timeout.
+     * @return true if the index became ready before the deadline.
+     */
+    public static boolean await(Probe probe, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long delay = initialDelay;
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(delay, remaining));
+            try {
+                if (probe.isReady()) {
+                    return true;
+                }
+            } catch (RuntimeException ex) {
+                System.out.println("Index readiness probe failed: " + ex.getMessage());
+            }
+            delay = Math.min(maxDelay, delay * 2);
+        }
+    }
+
+    /**
+     * Makes a probe that matches a known image against an image list.
+     * @param client the Content Moderator client.
+     * @param listId the list identifier.
+     * @param imageUrl the URL of the image to match.
+     * @param expectMatch true to wait until the image matches, false to
+     * wait until it no longer does.
+     * @return the probe.
+     */
+    public static Probe imageMatch(
+            final ContentModeratorClientImpl client,
+            final String listId,
+            String imageUrl,
+            final boolean expectMatch) {
+        final BodyModelInner bodyModel = new BodyModelInner();
+        bodyModel.withDataRepresentation("URL");
+        bodyModel.withValue(imageUrl);
+        return new Probe() {
+            @Override
+            public boolean isReady() {
+                MatchResponseInner result = client.imageModerations().matchUrlInput(
+                        "application/json",
+                        bodyModel,
+                        listId,
+                        false);
+                return Boolean.TRUE.equals(result.isMatch()) == expectMatch;
+            }
+        };
+    }
+
+    /**
+     * Makes a probe that screens a known term against a term list.
+     * @param client the Content Moderator client.
+     * @param listId the list identifier.
+     * @param language the language of the term list.
+     * @param term the term to screen.
+     * @param expectMatch true to wait until the term is detected, false to
+     * wait until it no longer is.
+     * @return the probe.
+     */
+    public static Probe termMatch(
+            final ContentModeratorClientImpl client,
+            final String listId,
+            final String language,
+            final String term,
+            final boolean expectMatch) {
+        return new Probe() {
+            @Override
+            public boolean isReady() {
+                ScreenInner screen = client.textModerations().screenText(
+                        language,
+                        "text/plain",
+                        term,
+                        false,
+                        false,
+                        listId,
+                        false);
+                boolean found = false;
+                if (screen.terms() != null) {
+                    for (DetectedTerms detected : screen.terms()) {
+                        if (term.equalsIgnoreCase(detected.term())) {
+                            found = true;
+                            break;
+                        }
+                    }
+                }
+                return found == expectMatch;
+            }
+        };
+    }
+}
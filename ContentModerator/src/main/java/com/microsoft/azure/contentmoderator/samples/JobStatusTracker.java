@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.JobInner;
+import com.microsoft.rest.RestException;
+
+import java.io.Closeable;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * Tracks the status of many moderation jobs at once.
+ * All outstanding jobs are polled from one scheduled executor. A dispatcher
+ * runs at a fixed interval and starts at most one getJobDetails call per tick,
+ * for the job that has been due longest, so polls are spread evenly however
+ * many jobs come due together. Each job backs off on its own: the delay
+ * between its polls grows while its status stays the same, returns to the
+ * initial delay when the status changes, and is jittered so jobs created
+ * together drift apart. Tracking the same job twice shares one poll loop.
+ */
+public class JobStatusTracker implements Closeable {
+    /*
+     * The delay, in milliseconds, before a job's first poll, and the
+     * longest delay between its polls.
+     */
+    private static final long initialDelay = 2000;
+    private static final long maxDelay = 60000;
+
+    /*
+     * The factor by which a job's delay grows while its status is unchanged,
+     * and the fraction of each delay that is randomized.
+     */
+    private static final double backoffFactor = 1.5;
+    private static final double jitter = 0.2;
+
+    private final class TrackedJob implements Comparable<TrackedJob> {
+        final String id;
+        final CompletableFuture<JobInner> future = new CompletableFuture<JobInner>();
+        final long deadline;
+        long due;
+        long delay = initialDelay;
+        String lastStatus;
+
+        TrackedJob(String id, long deadline) {
+            this.id = id;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(TrackedJob other) {
+            return Long.compare(due, other.due);
+        }
+    }
+
+    private final ContentModeratorClientImpl client;
+    private final String teamName;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService executor;
+    private final PriorityQueue<TrackedJob> queue = new PriorityQueue<TrackedJob>();
+    private final ConcurrentMap<String, TrackedJob> jobs = new ConcurrentHashMap<String, TrackedJob>();
+    private final Random random = new Random();
+
+    /**
+     * Creates a job status tracker.
+     * @param client the Content Moderator client.
+     * @param teamName the team the jobs belong to.
+     * @param pollsPerSecond the most getJobDetails calls to start per second.
+     * @param threads the number of threads that send the calls.
+     * @param timeout how long to track a job before giving up on it.
+     * @param unit the unit of timeout.
+     */
+    public JobStatusTracker(
+            ContentModeratorClientImpl client,
+            String teamName,
+            double pollsPerSecond,
+            int threads,
+            long timeout,
+            TimeUnit unit) {
+        this.client = client;
+        this.teamName = teamName;
+        this.timeoutMillis = unit.toMillis(timeout);
+        this.executor = Executors.newScheduledThreadPool(threads);
+
+        long period = Math.max(1, (long) (1000000 / pollsPerSecond));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, period, period, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Starts tracking a job.
+     * @param jobId the ID of the job.
+     * @return a future completed with the job once it has finished, or
+     * completed exceptionally if its status cannot be read or the timeout
+     * passes first.
+     */
+    public CompletableFuture<JobInner> track(String jobId) {
+        long now = System.currentTimeMillis();
+        TrackedJob job = new TrackedJob(jobId, now + timeoutMillis);
+        TrackedJob existing = jobs.putIfAbsent(jobId, job);
+        if (existing != null) {
+            return existing.future;
+        }
+        schedule(job, now);
+        return job.future;
+    }
+
+    /**
+     * @return the number of jobs that have not finished.
+     */
+    public int outstanding() {
+        return jobs.size();
+    }
+
+    /**
+     * Stops polling. Jobs that have not finished are cancelled.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (TrackedJob job : jobs.values()) {
+            job.future.cancel(false);
+        }
+        jobs.clear();
+    }
+
+    /**
+     * Decides whether a job status means the job has finished.
+     * @param status the job status.
+     * @return true for completed and failed jobs.
+     */
+    public static boolean isFinished(String status) {
+        if (status == null) {
+            return false;
+        }
+        String normalized = status.toLowerCase(Locale.ROOT);
+        return normalized.startsWith("complete") || normalized.equals("failed") || normalized.equals("error");
+    }
+
+    private void dispatch() {
+        final TrackedJob job;
+        synchronized (queue) {
+            TrackedJob head = queue.peek();
+            if (head == null || head.due > System.currentTimeMillis()) {
+                return;
+            }
+            job = queue.poll();
+        }
+        if (job.future.isDone()) {
+            jobs.remove(job.id, job);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                poll(job);
+            }
+        });
+    }
+
+    private void poll(TrackedJob job) {
+        try {
+            JobInner result = client.reviews().getJobDetails(teamName, job.id);
+            if (isFinished(result.status())) {
+                finish(job);
+                job.future.complete(result);
+                return;
+            }
+            if (result.status() != null && !result.status().equals(job.lastStatus)) {
+                job.lastStatus = result.status();
+                job.delay = initialDelay;
+            } else {
+                job.delay = Math.min(maxDelay, (long) (job.delay * backoffFactor));
+            }
+        } catch (RuntimeException ex) {
+            if (!isRetriable(ex)) {
+                finish(job);
+                job.future.completeExceptionally(ex);
+                return;
+            }
+            job.delay = Math.min(maxDelay, (long) (job.delay * backoffFactor));
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= job.deadline) {
+            finish(job);
+            job.future.completeExceptionally(
+                    new TimeoutException("Job " + job.id + " did not finish in time."));
+            return;
+        }
+        schedule(job, now);
+    }
+
+    private void schedule(TrackedJob job, long now) {
+        double spread;
+        synchronized (random) {
+            spread = 1 + jitter * (2 * random.nextDouble() - 1);
+        }
+        job.due = Math.min(job.deadline, now + (long) (job.delay * spread));
+        synchronized (queue) {
+            queue.add(job);
+        }
+    }
+
+    private void finish(TrackedJob job) {
+        jobs.remove(job.id, job);
+    }
+
+    /*
+     * Transient failures are retried, as is a job that is not found yet
+     * because it was only just created.
+     */
+    private static boolean isRetriable(RuntimeException ex) {
+        if (ex instanceof RestException && ((RestException) ex).response() != null
+                && ((RestException) ex).response().code() == 404) {
+            return true;
+        }
+        return ImageIngestion.isTransient(ex);
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies that any number of threads can record
+ * into without locking.
+ * Latencies are kept in microseconds in log-linear buckets: sixteen buckets
+ * for each power of two, so any percentile read back is within about 6% of
+ * the true value, from one microsecond up to about nineteen hours. The
+ * whole histogram takes a few kilobytes no matter how many values it holds.
+ */
+public class LatencyHistogram {
+    /**
+     * A point-in-time copy of a histogram.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the number of values recorded.
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return the largest value recorded, in milliseconds.
+         */
+        public double max() {
+            return max / 1000.0;
+        }
+
+        /**
+         * @return the mean of the values recorded, in milliseconds.
+         */
+        public double mean() {
+            return count == 0 ? 0 : sum / 1000.0 / count;
+        }
+
+        /**
+         * Reads a percentile.
+         * @param percentile the percentile, from 0 to 100.
+         * @return the value at the percentile, in milliseconds, or 0 if
+         * nothing was recorded.
+         */
+        public double percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            rank = Math.max(1, Math.min(count, rank));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, midpoint(i)) / 1000.0;
+                }
+            }
+            return max / 1000.0;
+        }
+    }
+
+    /*
+     * The number of buckets per power of two, as a power of two.
+     */
+    private static final int SubBucketBits = 4;
+    private static final int SubBuckets = 1 << SubBucketBits;
+
+    /*
+     * The largest value, in microseconds, with a bucket of its own; larger
+     * values are counted in the last bucket.
+     */
+    private static final int MaxMagnitude = 35;
+    private static final long MaxValue = (1L << (MaxMagnitude + 1)) - 1;
+
+    private final AtomicLongArray counts =
+            new AtomicLongArray((MaxMagnitude - SubBucketBits + 2) * SubBuckets);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     * @param duration the latency.
+     * @param unit the unit of duration.
+     */
+    public void record(long duration, TimeUnit unit) {
+        long micros = Math.max(0, Math.min(MaxValue, unit.toMicros(duration)));
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // Another thread raised the maximum; compare again.
+        }
+    }
+
+    /**
+     * Copies the histogram. Values recorded while the copy is made may or
+     * may not be included.
+     * @return the copy.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.get(), max.get());
+    }
+
+    /*
+     * Values below SubBuckets get one bucket each; above that, each power of
+     * two is split into SubBuckets equal buckets.
+     */
+    private static int index(long micros) {
+        if (micros < SubBuckets) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (magnitude - SubBucketBits)) & (SubBuckets - 1);
+        return (magnitude - SubBucketBits + 1) * SubBuckets + subBucket;
+    }
+
+    private static long midpoint(int index) {
+        if (index < SubBuckets) {
+            return index;
+        }
+        int magnitude = index / SubBuckets + SubBucketBits - 1;
+        int shift = magnitude - SubBucketBits;
+        long low = ((long) (SubBuckets + index % SubBuckets)) << shift;
+        return low + ((1L << shift) >>> 1);
+    }
+}
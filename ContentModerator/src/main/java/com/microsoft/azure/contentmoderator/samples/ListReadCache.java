@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache for the List Management APIs.
+ * Reads of image lists, term lists, their details, image IDs and terms are
+ * answered from memory for a short time, before the client's rate limiter,
+ * so repeated reads cost no requests. Any write made through a client
+ * that shares the cache, such as adding or deleting an image or a term or
+ * updating a list, drops the cached reads of that list and the cached
+ * reads of all lists at once. Writes made elsewhere are seen once the
+ * entries expire.
+ */
+public class ListReadCache {
+    private static final class CachedResponse {
+        final Protocol protocol;
+        final Headers headers;
+        final MediaType contentType;
+        final byte[] body;
+        final long expiresNanos;
+
+        CachedResponse(Protocol protocol, Headers headers, MediaType contentType, byte[] body, long expiresNanos) {
+            this.protocol = protocol;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.body = body;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    /*
+     * The path segments that lead to the List Management APIs, and the
+     * largest response body worth caching.
+     */
+    private static final String ListsSegment = "lists";
+    private static final int MaxBodyBytes = 1024 * 1024;
+
+    private final long timeToLiveNanos;
+    private final int maxEntries;
+    private final LinkedHashMap<String, CachedResponse> entries;
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     * @param timeToLive how long a read is answered from the cache.
+     * @param unit the unit of timeToLive.
+     * @param maxEntries the most reads to keep; the least recently used
+     * are dropped first.
+     */
+    public ListReadCache(long timeToLive, TimeUnit unit, final int maxEntries) {
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > ListReadCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the number of reads answered from the cache.
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of reads sent to the service.
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Drops every cached read.
+     */
+    public synchronized void clear() {
+        writes.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Makes the OkHttp interceptor that answers and records reads, and
+     * drops cached reads on writes. Add it before the client's rate limiter.
+     * @return the interceptor.
+     */
+    public Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Interceptor.Chain chain) throws IOException {
+                Request request = chain.request();
+                List<String> path = listsPath(request.url());
+                if (path == null) {
+                    return chain.proceed(request);
+                }
+                if (!request.method().equals("GET")) {
+                    Response response = chain.proceed(request);
+                    // Drop the cached reads once the write is done. A read
+                    // still in flight sees the write count change and is
+                    // not stored.
+                    invalidate(path);
+                    return response;
+                }
+
+                String key = request.url().toString();
+                CachedResponse cached = get(key);
+                if (cached != null) {
+                    hits.incrementAndGet();
+                    return new Response.Builder()
+                            .request(request)
+                            .protocol(cached.protocol)
+                            .code(200)
+                            .message("OK")
+                            .headers(cached.headers)
+                            .body(ResponseBody.create(cached.contentType, cached.body))
+                            .build();
+                }
+
+                misses.incrementAndGet();
+                long writesBefore = writes.get();
+                Response response = chain.proceed(request);
+                ResponseBody body = response.body();
+                if (response.code() != 200 || body == null || body.contentLength() > MaxBodyBytes) {
+                    return response;
+                }
+                byte[] bytes = body.bytes();
+                MediaType contentType = body.contentType();
+                put(key, new CachedResponse(response.protocol(), response.headers(), contentType, bytes,
+                        System.nanoTime() + timeToLiveNanos), writesBefore);
+                return response.newBuilder()
+                        .body(ResponseBody.create(contentType, bytes))
+                        .build();
+            }
+        };
+    }
+
+    private synchronized CachedResponse get(String key) {
+        CachedResponse entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expiresNanos >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(String key, CachedResponse entry, long writesBefore) {
+        if (writes.get() == writesBefore) {
+            entries.put(key, entry);
+        }
+    }
+
+    /*
+     * Drops the cached reads of the list a write touched, and the cached
+     * reads of all lists of that kind.
+     */
+    private synchronized void invalidate(List<String> path) {
+        writes.incrementAndGet();
+        String kind = path.get(0);
+        String list = path.size() > 1 ? kind + "/" + path.get(1) : null;
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            List<String> cached = listsPath(HttpUrl.parse(keys.next()));
+            if (cached == null || !cached.get(0).equals(kind)) {
+                continue;
+            }
+            if (list == null || cached.size() == 1
+                    || (cached.size() > 1 && list.equals(kind + "/" + cached.get(1)))) {
+                keys.remove();
+            }
+        }
+    }
+
+    /*
+     * @return the path after the API version for a List Management call,
+     * such as [imagelists, 42, images], or null for any other call.
+     */
+    private static List<String> listsPath(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        int lists = segments.indexOf(ListsSegment);
+        if (lists < 0 || lists + 2 >= segments.size()) {
+            return null;
+        }
+        List<String> path = segments.subList(lists + 2, segments.size());
+        if (path.get(path.size() - 1).isEmpty()) {
+            path = path.subList(0, path.size() - 1);
+        }
+        return path.isEmpty() ? null : path;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.TermsInList;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.TermsInner;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A local copy of a custom term list that screens text for the listed
+ * terms without calling the service.
+ * The copy is loaded with getAllTerms and kept in step by calling
+ * {@link #add(String)} and {@link #remove(String)} alongside addTerm and
+ * deleteTerm. The matching automaton is rebuilt on the first screen after
+ * the terms change, and screening itself takes no locks.
+ */
+public class LocalTermList {
+    /*
+     * The number of terms to fetch per getAllTerms call.
+     */
+    private static final int pageSize = 1000;
+
+    private final Set<String> terms =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile AhoCorasick automaton = new AhoCorasick(Collections.<String>emptyList());
+    private volatile boolean dirty;
+
+    /**
+     * Loads a local copy of a term list from the service.
+     * @param client the Content Moderator client.
+     * @param listId the ID of the term list.
+     * @param language the language of the terms.
+     * @return the local term list.
+     */
+    public static LocalTermList load(ContentModeratorClientImpl client, String listId, String language) {
+        LocalTermList list = new LocalTermList();
+        for (int offset = 0; ; offset += pageSize) {
+            TermsInner page = client.listManagementTerms().getAllTerms(listId, language, offset, pageSize);
+            List<TermsInList> terms = page.data() != null ? page.data().terms() : null;
+            if (terms == null || terms.isEmpty()) {
+                break;
+            }
+            for (TermsInList term : terms) {
+                list.terms.add(term.term());
+            }
+            if (terms.size() < pageSize) {
+                break;
+            }
+        }
+        list.dirty = true;
+        return list;
+    }
+
+    /**
+     * Adds a term to the local copy.
+     * @param term the term added to the list.
+     */
+    public void add(String term) {
+        if (terms.add(term)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Removes a term from the local copy.
+     * @param term the term deleted from the list.
+     */
+    public void remove(String term) {
+        if (terms.remove(term)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Replaces the local copy with the given terms.
+     * @param newTerms the terms now in the list.
+     */
+    public void replaceAll(Collection<String> newTerms) {
+        terms.clear();
+        terms.addAll(newTerms);
+        dirty = true;
+    }
+
+    /**
+     * Removes every term from the local copy.
+     */
+    public void clear() {
+        terms.clear();
+        dirty = true;
+    }
+
+    /**
+     * @return the number of terms in the local copy.
+     */
+    public int size() {
+        return terms.size();
+    }
+
+    /**
+     * Finds the listed terms in a text.
+     * @param text the text to screen.
+     * @return the terms found and their offsets in the text.
+     */
+    public List<AhoCorasick.Match> screen(CharSequence text) {
+        return current().find(text);
+    }
+
+    private AhoCorasick current() {
+        if (dirty) {
+            synchronized (this) {
+                if (dirty) {
+                    dirty = false;
+                    automaton = new AhoCorasick(terms);
+                }
+            }
+        }
+        return automaton;
+    }
+}
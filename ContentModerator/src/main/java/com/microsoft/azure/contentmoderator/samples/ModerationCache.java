@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.serializer.JacksonAdapter;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A disk-backed cache of image moderation results, keyed by the SHA-256
+ * hash of the image content, so an image submitted again under a different
+ * URL costs no API calls.
+ * Computing the key downloads the image, without the subscription key.
+ * When the image host returns an ETag, the URL and ETag pair is remembered
+ * so a repeated URL is only checked with a HEAD request.
+ * Entries expire after a time to live and the least recently used entries
+ * are evicted to keep the cache within its size limits. The most recently
+ * used results are also kept in memory.
+ */
+public class ModerationCache {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String EntrySuffix = ".json";
+
+    /*
+     * Starts every cache key, and changes whenever EvaluationData gains
+     * results, so entries written without them are never returned.
+     * Version 2 added TextScreening.
+     */
+    private static final String KeyPrefix = "v2-";
+
+    private final File directory;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long timeToLiveMillis;
+
+    private final SerializerAdapter<?> serializer = new JacksonAdapter();
+    private final OkHttpClient httpClient = new OkHttpClient();
+
+    /*
+     * The entries on disk and their sizes, in least recently used order.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBytes;
+
+    /*
+     * The most recently used results, kept in memory.
+     */
+    private final LinkedHashMap<String, ImageModeration.EvaluationData> hot;
+
+    /*
+     * Maps a hash of URL and ETag to the content hash of the image.
+     */
+    private final LinkedHashMap<String, String> urlIndex;
+
+    /**
+     * Opens a cache, indexing any entries already in the directory.
+     * @param directory the directory to hold the cache entries.
+     * @param maxEntries the maximum number of entries to keep.
+     * @param maxBytes the maximum total size of the entries on disk.
+     * @param timeToLive how long an entry stays valid.
+     * @param unit the unit of timeToLive.
+     */
+    public ModerationCache(File directory, int maxEntries, long maxBytes, long timeToLive, TimeUnit unit)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory + ".");
+        }
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.timeToLiveMillis = unit.toMillis(timeToLive);
+
+        final int hotEntries = Math.min(maxEntries, 1024);
+        this.hot = new LinkedHashMap<String, ImageModeration.EvaluationData>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImageModeration.EvaluationData> eldest) {
+                return size() > hotEntries;
+            }
+        };
+        this.urlIndex = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > 4 * hotEntries;
+            }
+        };
+
+        // Index the existing entries, oldest first.
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(EntrySuffix);
+            }
+        });
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            synchronized (this) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (!name.startsWith(KeyPrefix)) {
+                        // Written by an earlier version; drop it.
+                        file.delete();
+                        continue;
+                    }
+                    entries.put(name.substring(0, name.length() - EntrySuffix.length()), file.length());
+                    totalBytes += file.length();
+                }
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Computes the cache key for an image.
+     * @param imageUrl the URL of the image.
+     * @return the content hash of the image, with the cache version.
+     */
+    public String key(String imageUrl) throws IOException {
+        String urlKey = null;
+        try (Response head = httpClient.newCall(new Request.Builder().url(imageUrl).head().build()).execute()) {
+            String etag = head.header("ETag");
+            if (head.isSuccessful() && etag != null) {
+                urlKey = hash(imageUrl + "\n" + etag);
+                synchronized (this) {
+                    String contentHash = urlIndex.get(urlKey);
+                    if (contentHash != null) {
+                        return KeyPrefix + contentHash;
+                    }
+                }
+            }
+        }
+
+        String contentHash;
+        try (Response response = httpClient.newCall(new Request.Builder().url(imageUrl).build()).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unable to download " + imageUrl + ": HTTP " + response.code() + ".");
+            }
+            MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(response.body().byteStream(), digest)) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Read the image through the digest.
+                }
+            }
+            contentHash = toHex(digest.digest());
+        }
+
+        if (urlKey != null) {
+            synchronized (this) {
+                urlIndex.put(urlKey, contentHash);
+            }
+        }
+        return KeyPrefix + contentHash;
+    }
+
+    /**
+     * Looks up the cached results for an image.
+     * @param key the cache key of the image.
+     * @param imageUrl the URL to report in the returned results.
+     * @return the cached results, or null if there are none.
+     */
+    public ImageModeration.EvaluationData get(String key, String imageUrl) throws IOException {
+        ImageModeration.EvaluationData cached;
+        File file = entryFile(key);
+        synchronized (this) {
+            if (!entries.containsKey(key)) {
+                return null;
+            }
+            if (System.currentTimeMillis() - file.lastModified() > timeToLiveMillis) {
+                remove(key);
+                return null;
+            }
+            cached = hot.get(key);
+        }
+
+        if (cached == null) {
+            try {
+                cached = serializer.deserialize(
+                        new String(Files.readAllBytes(file.toPath()), UTF8),
+                        ImageModeration.EvaluationData.class);
+            } catch (FileNotFoundException | NoSuchFileException ex) {
+                synchronized (this) {
+                    remove(key);
+                }
+                return null;
+            }
+            synchronized (this) {
+                hot.put(key, cached);
+            }
+        }
+
+        ImageModeration.EvaluationData imageData = new ImageModeration.EvaluationData();
+        imageData.ImageUrl = imageUrl;
+        imageData.ImageModeration = cached.ImageModeration;
+        imageData.TextDetection = cached.TextDetection;
+        imageData.FaceDetection = cached.FaceDetection;
+        imageData.TextScreening = cached.TextScreening;
+        return imageData;
+    }
+
+    /**
+     * Stores the results for an image.
+     * @param key the cache key of the image.
+     * @param imageData the results to store.
+     */
+    public void put(String key, ImageModeration.EvaluationData imageData) throws IOException {
+        byte[] content = serializer.serialize(imageData).getBytes(UTF8);
+        File file = entryFile(key);
+        File temp = File.createTempFile(key, ".tmp", directory);
+        Files.write(temp.toPath(), content);
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+            Long previous = entries.put(key, (long) content.length);
+            totalBytes += content.length - (previous != null ? previous : 0);
+            hot.put(key, imageData);
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext() && (entries.size() > maxEntries || totalBytes > maxBytes)) {
+            Map.Entry<String, Long> entry = eldest.next();
+            totalBytes -= entry.getValue();
+            hot.remove(entry.getKey());
+            eldest.remove();
+            entryFile(entry.getKey()).delete();
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        hot.remove(key);
+        entryFile(key).delete();
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + EntrySuffix);
+    }
+
+    private static String hash(String value) {
+        return toHex(newDigest().digest(value.getBytes(UTF8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
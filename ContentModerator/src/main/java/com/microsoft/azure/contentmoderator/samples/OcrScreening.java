@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.DetectedTerms;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.OCRInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ScreenInner;
+
+import java.io.Closeable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Screens the text found in images, as a stage that runs alongside image
+ * evaluation.
+ * Each OCR result is handed to the stage as soon as it arrives and
+ * screened on the stage's own workers, so the caller can go on with the
+ * image's other calls and collect the screening result at the end.
+ * Identical texts, such as a watermark or caption repeated across images,
+ * are screened once: later images share the call in flight or its result.
+ * Texts longer than a single screenText call accepts are screened in
+ * chunks, and the terms found are gathered into one result.
+ */
+public class OcrScreening implements Closeable {
+    /*
+     * The number of distinct texts whose results are kept for reuse; the
+     * least recently used are dropped first.
+     */
+    private static final int MaxRememberedTexts = 10000;
+
+    private final ContentModeratorClientImpl client;
+    private final String language;
+    private final String listId;
+    private final ExecutorService pool;
+    private final Map<String, CompletableFuture<ScreenInner>> screened;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * Creates a text screening stage.
+     * @param client the Content Moderator client.
+     * @param language the language of the text.
+     * @param listId the ID of a term list to screen against, or null.
+     * @param workers the number of texts to screen at the same time.
+     */
+    public OcrScreening(ContentModeratorClientImpl client, String language, String listId, int workers) {
+        this.client = client;
+        this.language = language;
+        this.listId = listId;
+        final AtomicInteger threads = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "content-moderator-ocr-screening-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.screened = new LinkedHashMap<String, CompletableFuture<ScreenInner>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<ScreenInner>> eldest) {
+                return size() > MaxRememberedTexts;
+            }
+        };
+    }
+
+    /**
+     * @return the number of texts sent to the service.
+     */
+    public long calls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the number of texts answered by an earlier identical text.
+     */
+    public long reused() {
+        return reused.get();
+    }
+
+    /**
+     * Starts screening the text of an OCR result.
+     * @param textDetection the OCR result.
+     * @return the screening result, or a future of null if no text was found.
+     */
+    public Future<ScreenInner> screen(OCRInner textDetection) {
+        String text = textDetection != null && textDetection.text() != null ? textDetection.text().trim() : "";
+        if (text.length() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<ScreenInner> result;
+        synchronized (screened) {
+            CompletableFuture<ScreenInner> existing = screened.get(text);
+            if (existing != null) {
+                reused.incrementAndGet();
+                return existing;
+            }
+            result = new CompletableFuture<ScreenInner>();
+            screened.put(text, result);
+        }
+
+        calls.incrementAndGet();
+        final String content = text;
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(screenText(content));
+                    } catch (Exception ex) {
+                        forget(content, result);
+                        result.completeExceptionally(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            forget(content, result);
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Stops the stage's workers. Screening still in progress is abandoned.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /*
+     * Drops a failed result, so the next image with the same text tries again.
+     */
+    private void forget(String text, CompletableFuture<ScreenInner> result) {
+        synchronized (screened) {
+            if (screened.get(text) == result) {
+                screened.remove(text);
+            }
+        }
+    }
+
+    private ScreenInner screenText(String text) throws Exception {
+        if (text.length() <= ChunkedScreening.MaxChunkChars) {
+            return client.textModerations().screenText(
+                    language,
+                    "text/plain",
+                    text,
+                    false,
+                    false,
+                    listId,
+                    false);
+        }
+
+        final ScreenInner[] first = new ScreenInner[1];
+        final List<DetectedTerms> terms = new ArrayList<DetectedTerms>();
+        new ChunkedScreening(client, language, false, listId, false, 1).screen(
+                new StringReader(text),
+                new ChunkedScreening.Listener() {
+                    @Override
+                    public void onScreened(TextChunker.Chunk chunk, ScreenInner result) {
+                        if (first[0] == null) {
+                            first[0] = result;
+                        }
+                        if (result.terms() != null) {
+                            terms.addAll(result.terms());
+                        }
+                    }
+                });
+        return first[0].withOriginalText(text).withTerms(terms.isEmpty() ? null : terms);
+    }
+}
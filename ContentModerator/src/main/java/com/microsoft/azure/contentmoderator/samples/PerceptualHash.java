@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Computes 64-bit difference hashes (dHash) of images.
+ * The image is reduced to a 9x8 grid of average brightness values, and each
+ * bit records whether a cell is brighter than its right-hand neighbour.
+ * Resized, recompressed or slightly edited copies of an image have hashes
+ * that differ in only a few bits, so the Hamming distance between two hashes
+ * measures how alike the images look.
+ */
+public final class PerceptualHash {
+    private static final int Width = 9;
+    private static final int Height = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Hashes a local image file.
+     * @param file the image file.
+     * @return the 64-bit hash.
+     */
+    public static long of(File file) throws IOException {
+        return of(read(ImageIO.read(file), file.getPath()));
+    }
+
+    /**
+     * Hashes the image at a URL.
+     * @param imageUrl the URL of the image.
+     * @return the 64-bit hash.
+     */
+    public static long of(String imageUrl) throws IOException {
+        return of(read(ImageIO.read(new URL(imageUrl)), imageUrl));
+    }
+
+    /**
+     * Hashes an image read from a stream.
+     * @param stream the image data.
+     * @return the 64-bit hash.
+     */
+    public static long of(InputStream stream) throws IOException {
+        return of(read(ImageIO.read(stream), "stream"));
+    }
+
+    /**
+     * Hashes a decoded image.
+     * @param image the image.
+     * @return the 64-bit hash.
+     */
+    public static long of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] sums = new long[Width * Height];
+        long[] counts = new long[Width * Height];
+        int[] row = new int[width];
+
+        // Average the brightness of the pixels that fall in each grid cell.
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = (int) ((long) y * Height / height) * Width;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luma = (299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114 * (rgb & 0xff)) / 1000;
+                int cell = cellRow + (int) ((long) x * Width / width);
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < Height; y++) {
+            for (int x = 0; x < Width - 1; x++) {
+                int left = y * Width + x;
+                hash <<= 1;
+                // Compare averages without dividing: left/countL > right/countR.
+                if (sums[left] * counts[left + 1] > sums[left + 1] * counts[left]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of bits that differ between two hashes.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static BufferedImage read(BufferedImage image, String source) throws IOException {
+        if (image == null) {
+            throw new IOException("Unable to decode image " + source + ".");
+        }
+        return image;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import java.util.Arrays;
+
+/**
+ * An index of perceptual hashes that finds the entries within a Hamming
+ * distance of a query hash.
+ * The entries form a BK-tree: every child of a node sits at a known
+ * distance from it, so by the triangle inequality a search only has to
+ * visit the children whose distance is within the threshold of the
+ * query's own distance to the node.
+ * The tree is stored in primitive arrays, with each node's children kept
+ * as a linked list, so an index of tens of thousands of images stays
+ * compact. Removed entries are marked and skipped by searches.
+ */
+public class PerceptualHashIndex {
+    private static final int None = -1;
+
+    private long[] hashes = new long[64];
+    private int[] ids = new int[64];
+    private boolean[] removed = new boolean[64];
+    private byte[] parentDistance = new byte[64];
+    private int[] firstChild = new int[64];
+    private int[] nextSibling = new int[64];
+    private int nodes;
+    private int live;
+
+    /**
+     * Adds an image to the index.
+     * @param hash the perceptual hash of the image.
+     * @param id the identifier of the image, such as its list content ID.
+     */
+    public synchronized void add(long hash, int id) {
+        if (nodes == hashes.length) {
+            grow();
+        }
+        int node = nodes++;
+        hashes[node] = hash;
+        ids[node] = id;
+        removed[node] = false;
+        firstChild[node] = None;
+        nextSibling[node] = None;
+        live++;
+        if (node == 0) {
+            return;
+        }
+
+        int current = 0;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, hashes[current]);
+            int child = firstChild[current];
+            while (child != None && parentDistance[child] != distance) {
+                child = nextSibling[child];
+            }
+            if (child == None) {
+                parentDistance[node] = (byte) distance;
+                nextSibling[node] = firstChild[current];
+                firstChild[current] = node;
+                return;
+            }
+            current = child;
+        }
+    }
+
+    /**
+     * Removes an image from the index.
+     * @param hash the perceptual hash the image was added with.
+     * @param id the identifier the image was added with.
+     * @return true if the image was found.
+     */
+    public synchronized boolean remove(long hash, int id) {
+        int current = nodes > 0 ? 0 : None;
+        while (current != None) {
+            int distance = PerceptualHash.distance(hash, hashes[current]);
+            if (distance == 0 && ids[current] == id && !removed[current]) {
+                removed[current] = true;
+                live--;
+                return true;
+            }
+            int child = firstChild[current];
+            while (child != None && parentDistance[child] != distance) {
+                child = nextSibling[child];
+            }
+            current = child;
+        }
+        return false;
+    }
+
+    /**
+     * Removes every image from the index.
+     */
+    public synchronized void clear() {
+        nodes = 0;
+        live = 0;
+    }
+
+    /**
+     * @return the number of images in the index.
+     */
+    public synchronized int size() {
+        return live;
+    }
+
+    /**
+     * Checks whether any image in the index is within a distance of a hash.
+     * @param hash the perceptual hash to look for.
+     * @param maxDistance the largest Hamming distance that counts as a match.
+     * @return true if at least one image is close enough.
+     */
+    public synchronized boolean containsWithin(long hash, int maxDistance) {
+        return search(hash, maxDistance, true).length > 0;
+    }
+
+    /**
+     * Finds the images within a distance of a hash.
+     * @param hash the perceptual hash to look for.
+     * @param maxDistance the largest Hamming distance that counts as a match.
+     * @return the identifiers of the images that are close enough.
+     */
+    public synchronized int[] search(long hash, int maxDistance) {
+        return search(hash, maxDistance, false);
+    }
+
+    private int[] search(long hash, int maxDistance, boolean firstOnly) {
+        int[] found = new int[0];
+        int foundCount = 0;
+        if (nodes == 0) {
+            return found;
+        }
+
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int distance = PerceptualHash.distance(hash, hashes[node]);
+            if (distance <= maxDistance && !removed[node]) {
+                if (foundCount == found.length) {
+                    found = Arrays.copyOf(found, Math.max(4, foundCount * 2));
+                }
+                found[foundCount++] = ids[node];
+                if (firstOnly) {
+                    break;
+                }
+            }
+            for (int child = firstChild[node]; child != None; child = nextSibling[child]) {
+                if (Math.abs(parentDistance[child] - distance) <= maxDistance) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+        return Arrays.copyOf(found, foundCount);
+    }
+
+    private void grow() {
+        int capacity = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        removed = Arrays.copyOf(removed, capacity);
+        parentDistance = Arrays.copyOf(parentDistance, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+    }
+}
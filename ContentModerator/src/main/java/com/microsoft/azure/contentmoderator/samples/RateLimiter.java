@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that paces requests to the Content Moderator APIs.
+ * Your Content Moderator service key has a requests per second (RPS)
+ * rate limit, and the service returns a 429 error code if you exceed it.
+ * A single limiter is shared by every thread that uses a client, and it
+ * slows down on its own when the service answers 429 (honoring the
+ * Retry-After header), then recovers gradually once calls succeed again.
+ */
+public class RateLimiter {
+    /**
+     * The Content Moderator subscription tiers and their RPS limits.
+     */
+    public enum Tier {
+        /**
+         * The free tier allows one request per second.
+         */
+        FREE(1),
+
+        /**
+         * The standard tier allows ten requests per second.
+         */
+        STANDARD(10);
+
+        private final double requestsPerSecond;
+
+        Tier(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+        }
+
+        /**
+         * @return the RPS limit for the tier.
+         */
+        public double requestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        /**
+         * Parses a tier name such as "free", "F0", "standard" or "S0".
+         * @param name the tier name; null selects the free tier.
+         * @return the matching tier.
+         */
+        public static Tier parse(String name) {
+            if (name == null || name.equalsIgnoreCase("F0") || name.equalsIgnoreCase("free")) {
+                return FREE;
+            }
+            if (name.equalsIgnoreCase("S0") || name.equalsIgnoreCase("standard")) {
+                return STANDARD;
+            }
+            throw new IllegalArgumentException("Unknown subscription tier: " + name);
+        }
+    }
+
+    /*
+     * The HTTP status code the service returns when the RPS limit is exceeded.
+     */
+    private static final int TooManyRequests = 429;
+
+    /*
+     * The delay, in milliseconds, to apply after a 429 response that
+     * carries no Retry-After header.
+     */
+    private static final long defaultRetryAfter = 1000;
+
+    /*
+     * The number of times a throttled request is sent again before the
+     * 429 response is handed back to the caller.
+     */
+    private static final int maxRetries = 5;
+
+    /*
+     * The fraction of the configured rate to give back after each
+     * successful call once the limiter has slowed down.
+     */
+    private static final double recoveryStep = 0.05;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double capacity;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+
+    /**
+     * Creates a limiter for a subscription tier.
+     * @param tier the subscription tier of the key.
+     * @return the rate limiter.
+     */
+    public static RateLimiter forTier(Tier tier) {
+        return new RateLimiter(tier.requestsPerSecond(), 1);
+    }
+
+    /**
+     * Creates a limiter.
+     * @param requestsPerSecond the sustained rate to allow.
+     * @param burst the number of requests that may be sent back to back.
+     */
+    public RateLimiter(double requestsPerSecond, int burst) {
+        if (requestsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("requestsPerSecond and burst must be positive.");
+        }
+        this.maxRate = requestsPerSecond;
+        this.minRate = requestsPerSecond / 16;
+        this.capacity = burst;
+        this.rate = requestsPerSecond;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.pausedUntilNanos = this.lastRefillNanos;
+    }
+
+    /**
+     * @return the rate, in requests per second, currently being allowed.
+     */
+    public synchronized double currentRate() {
+        return rate;
+    }
+
+    /**
+     * @return the configured rate, in requests per second.
+     */
+    public double maxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Blocks until a request may be sent.
+     * Permits are reserved in arrival order, so waiting threads are
+     * released one interval apart rather than all at once.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            tokens -= 1;
+            waitNanos = Math.max(0, pausedUntilNanos - now);
+            if (tokens < 0) {
+                waitNanos += (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Records a throttled call: halves the rate and pauses all callers
+     * for the time the service asked for.
+     * @param retryAfterMillis the Retry-After delay, in milliseconds.
+     */
+    public synchronized void onThrottled(long retryAfterMillis) {
+        long now = System.nanoTime();
+        refill(now);
+        rate = Math.max(minRate, rate / 2);
+        tokens = Math.min(tokens, 0);
+        pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+    }
+
+    /**
+     * Records a call that was not throttled, moving the rate back
+     * towards the configured limit.
+     */
+    public synchronized void onSuccess() {
+        if (rate < maxRate) {
+            refill(System.nanoTime());
+            rate = Math.min(maxRate, rate + maxRate * recoveryStep);
+        }
+    }
+
+    /**
+     * Makes an OkHttp interceptor that paces every request through this
+     * limiter and retries requests the service rejected with a 429.
+     * @return the interceptor.
+     */
+    public Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Interceptor.Chain chain) throws IOException {
+                Request request = chain.request();
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the rate limiter.");
+                    }
+                    Response response = chain.proceed(request);
+                    if (response.code() != TooManyRequests) {
+                        onSuccess();
+                        return response;
+                    }
+                    onThrottled(retryAfter(response));
+                    if (attempt >= maxRetries) {
+                        return response;
+                    }
+                    response.close();
+                }
+            }
+        };
+    }
+
+    /*
+     * Reads the Retry-After header, which holds either a number of
+     * seconds or an HTTP date.
+     */
+    static long retryAfter(Response response) {
+        String value = response.header("Retry-After");
+        if (value != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                Date date = response.headers().getDate("Retry-After");
+                if (date != null) {
+                    return Math.max(0, date.getTime() - System.currentTimeMillis());
+                }
+            }
+        }
+        return defaultRetryAfter;
+    }
+
+    private void refill(long now) {
+        long from = Math.max(lastRefillNanos, pausedUntilNanos);
+        if (now > from) {
+            tokens = Math.min(capacity, tokens + (now - from) * rate / TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefillNanos = Math.max(lastRefillNanos, now);
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one key's requests per second (RPS) budget between lanes of
+ * traffic, such as interactive screening and bulk backfills.
+ * Calls wait in their lane's queue, and each time the rate limiter frees
+ * a permit it goes to the waiting call with the earliest weighted fair
+ * queuing tag, so when every lane is busy each gets a share of the budget
+ * in proportion to its weight, and a lightly used lane is served almost
+ * at once however deep the other queues are. A call that waits longer
+ * than its lane's deadline fails rather than being sent late.
+ * Each client is bound to one lane; clients on the same scheduler share
+ * its budget.
+ */
+public class RequestScheduler implements Closeable {
+    /**
+     * A class of traffic with its own queue, weight and deadline.
+     */
+    public final class Lane {
+        private final String name;
+        private final double cost;
+        private final long deadlineNanos;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<Waiter>();
+        private double lastTag;
+
+        private final AtomicLong granted = new AtomicLong();
+        private final AtomicLong expired = new AtomicLong();
+
+        private Lane(String name, int weight, long deadlineNanos) {
+            this.name = name;
+            this.cost = 1.0 / weight;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return the name of the lane.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the number of calls let through so far.
+         */
+        public long granted() {
+            return granted.get();
+        }
+
+        /**
+         * @return the number of calls that failed for waiting past the deadline.
+         */
+        public long expired() {
+            return expired.get();
+        }
+
+        /**
+         * @return the number of calls waiting in the lane.
+         */
+        public int queued() {
+            synchronized (RequestScheduler.this) {
+                return queue.size();
+            }
+        }
+
+        /**
+         * Blocks until the scheduler lets a call in this lane through.
+         * @throws InterruptedIOException if the call waited past the
+         * lane's deadline, or the thread was interrupted.
+         */
+        public void acquire() throws InterruptedIOException {
+            RequestScheduler.this.acquire(this);
+        }
+
+        /**
+         * Makes an OkHttp interceptor that sends every request through this
+         * lane, and sends requests the service rejected with a 429 through
+         * it again. It takes the place of a client's rate limiter interceptor.
+         * @return the interceptor.
+         */
+        public Interceptor interceptor() {
+            return new Interceptor() {
+                @Override
+                public Response intercept(Interceptor.Chain chain) throws IOException {
+                    Request request = chain.request();
+                    for (int attempt = 0; ; attempt++) {
+                        acquire();
+                        Response response = chain.proceed(request);
+                        if (response.code() != TooManyRequests) {
+                            rateLimiter.onSuccess();
+                            return response;
+                        }
+                        rateLimiter.onThrottled(RateLimiter.retryAfter(response));
+                        if (attempt >= MaxThrottledRetries) {
+                            return response;
+                        }
+                        response.close();
+                    }
+                }
+            };
+        }
+    }
+
+    /*
+     * A call waiting for a permit.
+     */
+    private static final class Waiter {
+        final Lane lane;
+        final double tag;
+        final CountDownLatch granted = new CountDownLatch(1);
+        volatile boolean cancelled;
+
+        Waiter(Lane lane, double tag) {
+            this.lane = lane;
+            this.tag = tag;
+        }
+    }
+
+    private static final int TooManyRequests = 429;
+
+    /*
+     * The number of times a throttled request is sent again before the
+     * 429 response is handed back to the caller.
+     */
+    private static final int MaxThrottledRetries = 5;
+
+    private final RateLimiter rateLimiter;
+    private final List<Lane> lanes = new ArrayList<Lane>();
+    private final Thread dispatcher;
+
+    private double virtualTime;
+    private int waiting;
+    private boolean closed;
+
+    /**
+     * Creates a scheduler.
+     * @param rateLimiter the limiter for the shared key.
+     */
+    public RequestScheduler(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        this.dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "content-moderator-scheduler");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Adds a lane.
+     * @param name the name of the lane.
+     * @param weight the lane's share of the budget relative to the other
+     * lanes when all are busy.
+     * @param deadline the longest a call may wait for its turn, or 0 for no limit.
+     * @param unit the unit of deadline.
+     * @return the lane.
+     */
+    public synchronized Lane lane(String name, int weight, long deadline, TimeUnit unit) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive.");
+        }
+        Lane lane = new Lane(name, weight, unit.toNanos(deadline));
+        lanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * Stops the scheduler. Calls still waiting fail.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        dispatcher.interrupt();
+    }
+
+    private void acquire(Lane lane) throws InterruptedIOException {
+        Waiter waiter;
+        synchronized (this) {
+            if (closed) {
+                throw new InterruptedIOException("The scheduler is closed.");
+            }
+            // Self-clocked fair queuing: a lane that has been idle starts
+            // from the current virtual time rather than its old backlog.
+            double tag = Math.max(virtualTime, lane.lastTag) + lane.cost;
+            lane.lastTag = tag;
+            waiter = new Waiter(lane, tag);
+            lane.queue.add(waiter);
+            waiting++;
+            notifyAll();
+        }
+
+        try {
+            boolean granted = lane.deadlineNanos > 0
+                    ? waiter.granted.await(lane.deadlineNanos, TimeUnit.NANOSECONDS)
+                    : awaitForever(waiter);
+            if (granted) {
+                if (waiter.cancelled) {
+                    throw new InterruptedIOException("The scheduler is closed.");
+                }
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (withdraw(waiter)) {
+                throw new InterruptedIOException("Interrupted while waiting for the scheduler.");
+            }
+            return;
+        }
+
+        if (withdraw(waiter)) {
+            lane.expired.incrementAndGet();
+            throw new InterruptedIOException("The call waited longer than the deadline of the "
+                    + lane.name + " lane.");
+        }
+    }
+
+    private static boolean awaitForever(Waiter waiter) throws InterruptedException {
+        waiter.granted.await();
+        return true;
+    }
+
+    /*
+     * Takes a waiter out of its queue unless it was granted a permit in
+     * the meantime.
+     * @return true if the waiter was taken out, false if it was granted.
+     */
+    private synchronized boolean withdraw(Waiter waiter) {
+        if (waiter.granted.getCount() == 0) {
+            return false;
+        }
+        waiter.lane.queue.remove(waiter);
+        waiting--;
+        return true;
+    }
+
+    /*
+     * Takes a permit from the rate limiter whenever calls are waiting and
+     * hands it to the waiting call with the earliest tag. A permit taken
+     * while the only callers gave up is kept for the next caller.
+     */
+    private void dispatch() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (waiting == 0 && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        break;
+                    }
+                }
+
+                rateLimiter.acquire();
+
+                synchronized (this) {
+                    while (waiting == 0 && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        break;
+                    }
+                    Waiter next = null;
+                    for (Lane lane : lanes) {
+                        Waiter head = lane.queue.peek();
+                        if (head != null && (next == null || head.tag < next.tag)) {
+                            next = head;
+                        }
+                    }
+                    next.lane.queue.poll();
+                    waiting--;
+                    virtualTime = next.tag;
+                    next.lane.granted.incrementAndGet();
+                    next.granted.countDown();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed.
+        }
+
+        synchronized (this) {
+            for (Lane lane : lanes) {
+                for (Waiter waiter : lane.queue) {
+                    waiter.cancelled = true;
+                    waiter.granted.countDown();
+                }
+                lane.queue.clear();
+            }
+            waiting = 0;
+        }
+    }
+}
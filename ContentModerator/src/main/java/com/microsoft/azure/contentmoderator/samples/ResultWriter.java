@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.rest.protocol.SerializerAdapter;
+import com.microsoft.rest.serializer.JacksonAdapter;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Streams results to a newline-delimited JSON (NDJSON) file as they complete.
+ * Each result is tagged with the offset of the input record it came from.
+ * Results may arrive in any order; they are written in input order, so only
+ * the results still in flight are held in memory.
+ * Every batch of records is flushed to disk and followed by a checkpoint
+ * that records how many input records, and how many output bytes, are
+ * committed, and which of the committed records failed. A run that opens
+ * the same files again truncates anything written after the last
+ * checkpoint and resumes from {@link #resumeOffset()}, retrying the records
+ * that failed; their results are written after the rest of the output.
+ */
+public class ResultWriter implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /*
+     * Marks an input record that produced no output, such as a blank line
+     * or an item that failed.
+    */
+    private static final byte[] NoRecord = new byte[0];
+
+    /*
+     * Marks an input record that failed and must be retried by a later run.
+    */
+    private static final byte[] FailedRecord = new byte[0];
+
+    private final File checkpointFile;
+    private final int batchSize;
+    private final SerializerAdapter<?> serializer = new JacksonAdapter();
+    private final FileOutputStream fileStream;
+    private final OutputStream outputStream;
+
+    private final long resumeOffset;
+    private final TreeSet<Long> failed = new TreeSet<Long>();
+    private final TreeMap<Long, byte[]> pending = new TreeMap<Long, byte[]>();
+    private long nextOffset;
+    private long bytesWritten;
+    private int uncommitted;
+
+    /**
+     * Opens a result writer, resuming from the checkpoint if there is one.
+     * @param outputFile the NDJSON file to write.
+     * @param checkpointFile the file that records the committed position.
+     * @param batchSize the number of records to write between checkpoints.
+     */
+    public ResultWriter(File outputFile, File checkpointFile, int batchSize) throws IOException {
+        this.checkpointFile = checkpointFile;
+        this.batchSize = batchSize;
+
+        long offset = 0;
+        long bytes = 0;
+        if (checkpointFile.exists() && outputFile.exists()) {
+            Properties checkpoint = new Properties();
+            try (InputStream in = new FileInputStream(checkpointFile)) {
+                checkpoint.load(in);
+            }
+            offset = Long.parseLong(checkpoint.getProperty("offset", "0"));
+            bytes = Long.parseLong(checkpoint.getProperty("bytes", "0"));
+            for (String failedOffset : checkpoint.getProperty("failed", "").split(",")) {
+                if (failedOffset.length() > 0) {
+                    failed.add(Long.parseLong(failedOffset));
+                }
+            }
+        }
+
+        this.fileStream = new FileOutputStream(outputFile, bytes > 0);
+        // Drop anything written after the last checkpoint.
+        this.fileStream.getChannel().truncate(bytes);
+        this.outputStream = new BufferedOutputStream(this.fileStream);
+        this.resumeOffset = offset;
+        this.nextOffset = offset;
+        this.bytesWritten = bytes;
+    }
+
+    /**
+     * @return the number of input records committed by an earlier run.
+     */
+    public long resumeOffset() {
+        return resumeOffset;
+    }
+
+    /**
+     * @return the number of committed input records that failed and are
+     * retried by this run.
+     */
+    public synchronized int retries() {
+        return failed.headSet(resumeOffset).size();
+    }
+
+    /**
+     * @param offset the zero-based offset of an input record.
+     * @return true if an earlier run committed a result for the record, so
+     * it must be skipped.
+     */
+    public synchronized boolean isDone(long offset) {
+        return offset < resumeOffset && !failed.contains(offset);
+    }
+
+    /**
+     * Records the result for an input record.
+     * @param offset the zero-based offset of the input record.
+     * @param result the result to write, or null if the record produced none.
+     */
+    public void write(long offset, Object result) throws IOException {
+        byte[] record = NoRecord;
+        if (result != null) {
+            record = (serializer.serialize(result) + "\n").getBytes(UTF8);
+        }
+        put(offset, record);
+    }
+
+    /**
+     * Records that an input record failed. It produces no output, and the
+     * next run that resumes from these files retries it.
+     * @param offset the zero-based offset of the input record.
+     */
+    public void fail(long offset) throws IOException {
+        put(offset, FailedRecord);
+    }
+
+    private synchronized void put(long offset, byte[] record) throws IOException {
+        if (offset < nextOffset) {
+            // A retry of a record that failed in an earlier run.
+            if (record != FailedRecord && failed.remove(offset)) {
+                outputStream.write(record);
+                bytesWritten += record.length;
+                if (++uncommitted >= batchSize) {
+                    commit();
+                }
+            }
+            return;
+        }
+        pending.put(offset, record);
+        while (!pending.isEmpty() && pending.firstKey() == nextOffset) {
+            byte[] next = pending.remove(nextOffset);
+            if (next == FailedRecord) {
+                failed.add(nextOffset);
+            }
+            outputStream.write(next);
+            bytesWritten += next.length;
+            nextOffset++;
+            if (++uncommitted >= batchSize) {
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Commits the records written so far and closes the file.
+     * Results still waiting on an earlier record are not committed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /*
+     * Forces the output to disk, then atomically replaces the checkpoint.
+    */
+    private void commit() throws IOException {
+        outputStream.flush();
+        FileChannel channel = fileStream.getChannel();
+        channel.force(false);
+
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("offset", String.valueOf(nextOffset));
+        checkpoint.setProperty("bytes", String.valueOf(bytesWritten));
+        StringBuilder failedOffsets = new StringBuilder();
+        for (Long failedOffset : failed) {
+            if (failedOffsets.length() > 0) {
+                failedOffsets.append(',');
+            }
+            failedOffsets.append(failedOffset);
+        }
+        checkpoint.setProperty("failed", failedOffsets.toString());
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            checkpoint.store(out, null);
+        }
+        Files.move(temp.toPath(), checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        uncommitted = 0;
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.CreateReviewBodyItemInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ReviewInner;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Creates reviews for a stream of items in batches.
+ * Items are read as batches free up and packed into createReviews calls of
+ * up to the batch size, and several calls are kept in flight at once. The
+ * request rate is governed by the rate limiter attached to the client,
+ * which also retries throttled calls. Other failed batches are not sent
+ * again, since the service may already have created some of their reviews;
+ * their items are reported as failures instead.
+ * Review details are looked up in parallel on the same threads.
+ */
+public class ReviewSubmission implements Closeable {
+    /**
+     * Receives each review that was created.
+     */
+    public interface Listener {
+        /**
+         * Called, on a worker thread, after a review is created.
+         * @param item the item the review was created for.
+         * @param reviewId the ID the service assigned to the review.
+         */
+        void onCreated(CreateReviewBodyItemInner item, String reviewId);
+    }
+
+    /**
+     * Describes an item whose review could not be created.
+     */
+    public static class Failure {
+        /**
+         * The item.
+         */
+        public final CreateReviewBodyItemInner Item;
+
+        /**
+         * The error from the createReviews call.
+         */
+        public final String Message;
+
+        Failure(CreateReviewBodyItemInner item, String message) {
+            this.Item = item;
+            this.Message = message;
+        }
+    }
+
+    /**
+     * The outcome of a submission.
+     */
+    public static class Report {
+        /**
+         * The number of reviews created.
+         */
+        public final AtomicInteger Created = new AtomicInteger();
+
+        /**
+         * The number of createReviews calls sent.
+         */
+        public final AtomicInteger Batches = new AtomicInteger();
+
+        /**
+         * The items whose reviews could not be created.
+         */
+        public final Queue<Failure> Failures = new ConcurrentLinkedQueue<Failure>();
+    }
+
+    /**
+     * The default number of items to send in one createReviews call.
+     */
+    public static final int DefaultBatchSize = 256;
+
+    private final ContentModeratorClientImpl client;
+    private final String teamName;
+    private final int batchSize;
+    private final int concurrentBatches;
+    private final ExecutorService pool;
+
+    /**
+     * Creates a review submission pipeline.
+     * @param client the Content Moderator client.
+     * @param teamName the team to create the reviews for.
+     * @param batchSize the most items to send in one createReviews call.
+     * @param concurrentBatches the number of calls to have in flight.
+     */
+    public ReviewSubmission(
+            ContentModeratorClientImpl client,
+            String teamName,
+            int batchSize,
+            int concurrentBatches) {
+        this.client = client;
+        this.teamName = teamName;
+        this.batchSize = batchSize;
+        this.concurrentBatches = concurrentBatches;
+        this.pool = Executors.newFixedThreadPool(concurrentBatches);
+    }
+
+    /**
+     * Creates reviews for items, returning once every batch has been sent.
+     * @param items the items to create reviews for.
+     * @param listener notified of each review created, or null.
+     * @return the outcome of the submission.
+     */
+    public Report submit(Iterator<CreateReviewBodyItemInner> items, final Listener listener)
+            throws InterruptedException {
+        final Report report = new Report();
+        final Semaphore pending = new Semaphore(concurrentBatches);
+        while (items.hasNext()) {
+            final List<CreateReviewBodyItemInner> batch = new ArrayList<CreateReviewBodyItemInner>(batchSize);
+            while (batch.size() < batchSize && items.hasNext()) {
+                batch.add(items.next());
+            }
+            pending.acquire();
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        send(batch, listener, report);
+                    } finally {
+                        pending.release();
+                    }
+                }
+            });
+        }
+        pending.acquire(concurrentBatches);
+        pending.release(concurrentBatches);
+        return report;
+    }
+
+    /**
+     * Looks up reviews in parallel.
+     * @param reviewIds the IDs of the reviews.
+     * @return a future for each review, in the order of the IDs.
+     */
+    public List<CompletableFuture<ReviewInner>> getReviews(Iterable<String> reviewIds) {
+        List<CompletableFuture<ReviewInner>> reviews = new ArrayList<CompletableFuture<ReviewInner>>();
+        for (final String reviewId : reviewIds) {
+            reviews.add(CompletableFuture.supplyAsync(new Supplier<ReviewInner>() {
+                @Override
+                public ReviewInner get() {
+                    return client.reviews().getReview(teamName, reviewId);
+                }
+            }, pool));
+        }
+        return reviews;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private void send(List<CreateReviewBodyItemInner> batch, Listener listener, Report report) {
+        List<String> reviewIds;
+        try {
+            report.Batches.incrementAndGet();
+            reviewIds = client.reviews().createReviews(teamName, "application/json", batch);
+        } catch (RuntimeException ex) {
+            for (CreateReviewBodyItemInner item : batch) {
+                report.Failures.add(new Failure(item, String.valueOf(ex.getMessage())));
+            }
+            return;
+        }
+
+        // The review IDs are returned in the order of the items.
+        for (int i = 0; i < batch.size(); i++) {
+            if (reviewIds == null || i >= reviewIds.size()) {
+                report.Failures.add(new Failure(batch.get(i), "No review ID was returned."));
+                continue;
+            }
+            report.Created.incrementAndGet();
+            if (listener != null) {
+                listener.onCreated(batch.get(i), reviewIds.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.EvaluateInner;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which evaluated images need a human review.
+ * An image whose adult or racy score is at or above the category's reject
+ * threshold is rejected, and one whose scores are both below the approve
+ * thresholds is approved, without a review. Only the images in between,
+ * and those without scores, are passed on to be reviewed.
+ */
+public class ReviewTriage {
+    /**
+     * What happens to an image.
+     */
+    public enum Decision {
+        /**
+         * The image is clearly acceptable.
+         */
+        APPROVE,
+
+        /**
+         * The image is clearly not acceptable.
+         */
+        REJECT,
+
+        /**
+         * The image needs a human review.
+         */
+        REVIEW
+    }
+
+    /**
+     * The scores of one category that are decided without a review.
+     */
+    public static class Band {
+        /**
+         * Scores below this are approved.
+         */
+        public final double ApproveBelow;
+
+        /**
+         * Scores at or above this are rejected.
+         */
+        public final double RejectFrom;
+
+        /**
+         * Creates a band.
+         * @param approveBelow scores below this are approved.
+         * @param rejectFrom scores at or above this are rejected.
+         */
+        public Band(double approveBelow, double rejectFrom) {
+            if (approveBelow > rejectFrom) {
+                throw new IllegalArgumentException("approveBelow must not be above rejectFrom.");
+            }
+            this.ApproveBelow = approveBelow;
+            this.RejectFrom = rejectFrom;
+        }
+    }
+
+    /**
+     * Receives the images decided without a review.
+     */
+    public interface Listener {
+        /**
+         * Called when an image is approved or rejected.
+         * @param imageData the moderation results for the image.
+         * @param decision the decision.
+         */
+        void onDecided(ImageModeration.EvaluationData imageData, Decision decision);
+    }
+
+    /**
+     * The number of images given each decision.
+     */
+    public static class Report {
+        /**
+         * The number of images approved without a review.
+         */
+        public final AtomicInteger Approved = new AtomicInteger();
+
+        /**
+         * The number of images rejected without a review.
+         */
+        public final AtomicInteger Rejected = new AtomicInteger();
+
+        /**
+         * The number of images passed on to be reviewed.
+         */
+        public final AtomicInteger Reviewed = new AtomicInteger();
+    }
+
+    private final Band adult;
+    private final Band racy;
+
+    /**
+     * Creates a triage stage.
+     * @param adult the band for adult scores.
+     * @param racy the band for racy scores.
+     */
+    public ReviewTriage(Band adult, Band racy) {
+        this.adult = adult;
+        this.racy = racy;
+    }
+
+    /**
+     * @param evaluation the adult and racy content results for an image.
+     * @return the decision for the image.
+     */
+    public Decision decide(EvaluateInner evaluation) {
+        if (evaluation == null
+                || evaluation.adultClassificationScore() == null
+                || evaluation.racyClassificationScore() == null) {
+            return Decision.REVIEW;
+        }
+        double adultScore = evaluation.adultClassificationScore();
+        double racyScore = evaluation.racyClassificationScore();
+        if (adultScore >= adult.RejectFrom || racyScore >= racy.RejectFrom) {
+            return Decision.REJECT;
+        }
+        if (adultScore < adult.ApproveBelow && racyScore < racy.ApproveBelow) {
+            return Decision.APPROVE;
+        }
+        return Decision.REVIEW;
+    }
+
+    /**
+     * Triages a stream of evaluated images lazily, as the returned
+     * iterator is read, so it can feed a review submission directly.
+     * @param evaluated the evaluated images.
+     * @param listener receives the images decided without a review.
+     * @param report counts the decisions.
+     * @return the images that need a human review.
+     */
+    public Iterator<ImageModeration.EvaluationData> toReview(
+            final Iterator<ImageModeration.EvaluationData> evaluated,
+            final Listener listener,
+            final Report report) {
+        return new Iterator<ImageModeration.EvaluationData>() {
+            private ImageModeration.EvaluationData next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && evaluated.hasNext()) {
+                    ImageModeration.EvaluationData imageData = evaluated.next();
+                    if (imageData == null) {
+                        continue;
+                    }
+                    Decision decision = decide(imageData.ImageModeration);
+                    switch (decision) {
+                        case APPROVE:
+                            report.Approved.incrementAndGet();
+                            listener.onDecided(imageData, decision);
+                            break;
+                        case REJECT:
+                            report.Rejected.incrementAndGet();
+                            listener.onDecided(imageData, decision);
+                            break;
+                        default:
+                            report.Reviewed.incrementAndGet();
+                            next = imageData;
+                            break;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public ImageModeration.EvaluationData next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ImageModeration.EvaluationData result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -16,7 +16,9 @@ import okhttp3.Response;
 import java.io.*;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Samples {
     /**
@@ -33,16 +35,133 @@ public class Samples {
      */
     public static String TeamName;
 
+    /*
+     * The subscription tier of the key, which sets the requests per second
+     * (RPS) rate limit the client paces its calls to.
+     */
+    public static RateLimiter.Tier Tier = null;
+
+    /*
+     * The public URL that review and job callbacks are posted to. It must
+     * forward, keeping the path, to CallbackPort on the loopback address of
+     * this machine, where the samples receive the callbacks. A secret path
+     * made up for each run is appended to it when it is registered. If not
+     * set, no callback is registered and the samples poll instead.
+     */
+    public static String CallbackUrl = null;
+
+    /*
+     * The local port the samples receive review and job callbacks on when
+     * CallbackUrl is set.
+     */
+    public static int CallbackPort = 8080;
+
+    /*
+     * More endpoints to spread moderation calls across, in the form
+     * "region=key,region=key", such as "eastus2=<key>,westeurope=<key>".
+     * The region and key the samples otherwise use stay the primary
+     * endpoint, which holds the team's lists and reviews.
+     */
+    public static String Endpoints = null;
+
+    /*
+     * When a single key is used, the samples share its budget between two
+     * lanes: text screening, which stands in for interactive traffic and
+     * gets this weight and deadline, and everything else, which is bulk
+     * work with a weight of one and no deadline.
+     */
+    public static int InteractiveWeight = 8;
+    public static int InteractiveDeadlineMillis = 2000;
+
+    /*
+     * The latency, throttling and traffic metrics of every client made by
+     * getClient, and the number of seconds between the reports of them
+     * printed while the samples run.
+     */
+    public static final CallMetrics Metrics = new CallMetrics();
+    public static int MetricsReportSeconds = 60;
+
+    /*
+     * The cache that answers repeated reads of image lists, term lists and
+     * their contents for every client made by getClient. Writes through
+     * any of the clients drop the cached reads of the list they change.
+     */
+    public static final ListReadCache ListReads = new ListReadCache(30, TimeUnit.SECONDS, 1024);
+
+    /*
+     * Hedging of the screenText calls the samples make without a term
+     * list: a call that has not returned by this percentile of recent
+     * latency is sent again, with at most this many extra calls per call.
+     * Set the percentile, such as 95, to turn hedging on. Hedges need a key
+     * or region of their own, so hedging also needs Endpoints: the first
+     * endpoint listed there is kept for hedges, and refuses any call that
+     * refers to the team's lists.
+     */
+    public static double HedgePercentile = 0;
+    public static double HedgeBudget = 0.05;
+    public static HedgedCalls Hedging = null;
+
     /**
      * Makes an instance of the ComputerVisionAPIImpl.
      * @param subscriptionKey cognitive services bing subscription key
      * @return EntitySearchAPIImpl instance
      */
     public static ContentModeratorClientImpl getClient(final String subscriptionKey) {
+        return getClient(subscriptionKey, RateLimiter.forTier(Tier != null ? Tier : RateLimiter.Tier.FREE));
+    }
+
+    /**
+     * Makes an instance of the ContentModeratorClientImpl whose calls are
+     * paced by the given rate limiter.
+     * @param subscriptionKey cognitive services subscription key
+     * @param rateLimiter the limiter shared by every thread using the client
+     * @return ContentModeratorClientImpl instance
+     */
+    public static ContentModeratorClientImpl getClient(final String subscriptionKey, final RateLimiter rateLimiter) {
+        return getClient(subscriptionKey, rateLimiter, HttpTransport.shared());
+    }
+
+    /**
+     * Makes an instance of the ContentModeratorClientImpl that sends its
+     * calls over the given transport, which other clients may share.
+     * @param subscriptionKey cognitive services subscription key
+     * @param rateLimiter the limiter shared by every thread using the client
+     * @param transport the connection pool and dispatcher settings to use
+     * @return ContentModeratorClientImpl instance
+     */
+    public static ContentModeratorClientImpl getClient(
+            final String subscriptionKey,
+            final RateLimiter rateLimiter,
+            final HttpTransport transport) {
+        return getClient(subscriptionKey, rateLimiter.interceptor(), transport);
+    }
+
+    /**
+     * Makes an instance of the ContentModeratorClientImpl whose calls go
+     * through a lane of a request scheduler, sharing the scheduler's budget
+     * with the clients of its other lanes.
+     * @param subscriptionKey cognitive services subscription key
+     * @param lane the scheduler lane for the client's calls
+     * @return ContentModeratorClientImpl instance
+     */
+    public static ContentModeratorClientImpl getClient(
+            final String subscriptionKey,
+            final RequestScheduler.Lane lane) {
+        return getClient(subscriptionKey, lane.interceptor(), HttpTransport.shared());
+    }
+
+    private static ContentModeratorClientImpl getClient(
+            final String subscriptionKey,
+            final Interceptor pacing,
+            final HttpTransport transport) {
         return new ContentModeratorClientImpl(
                 new ServiceClientCredentials() {
                     @Override
                     public void applyCredentialsFilter(OkHttpClient.Builder builder) {
+                        transport.apply(builder);
+                        builder.addInterceptor(Metrics.interceptor());
+                        builder.addInterceptor(ListReads.interceptor());
+                        builder.addInterceptor(pacing);
                         builder.addNetworkInterceptor(
                                 new Interceptor() {
                                     @Override
@@ -56,23 +175,40 @@ public class Samples {
                                         return chain.proceed(request);
                                     }
                                 });
+                        builder.addNetworkInterceptor(Metrics.networkInterceptor());
                     }
                 }).withBaseUrl("https://westus.api.cognitive.microsoft.com");
     }
 
-    static String readFileContents(String filePath) throws IOException {
-        // Load the input text.
-        StringBuffer buffer = new StringBuffer();
-        try (BufferedReader inputStream =
-                     new BufferedReader(new FileReader(new File(filePath)))) {
-            String line;
-            while ((line = inputStream.readLine()) != null)
-            {
-                buffer.append(line);
-            }
-        }
+    /**
+     * Makes an instance of the ContentModeratorClientImpl that spreads its
+     * calls across the endpoints of a client pool.
+     * @param pool the subscription keys and regional endpoints to use
+     * @return ContentModeratorClientImpl instance
+     */
+    public static ContentModeratorClientImpl getClient(final ClientPool pool) {
+        return getClient(pool, HttpTransport.shared());
+    }
 
-        return buffer.toString();
+    /**
+     * Makes an instance of the ContentModeratorClientImpl that spreads its
+     * calls across the endpoints of a client pool, over the given transport.
+     * @param pool the subscription keys and regional endpoints to use
+     * @param transport the connection pool and dispatcher settings to use
+     * @return ContentModeratorClientImpl instance
+     */
+    public static ContentModeratorClientImpl getClient(final ClientPool pool, final HttpTransport transport) {
+        return new ContentModeratorClientImpl(
+                new ServiceClientCredentials() {
+                    @Override
+                    public void applyCredentialsFilter(OkHttpClient.Builder builder) {
+                        transport.apply(builder);
+                        builder.addInterceptor(Metrics.interceptor());
+                        builder.addInterceptor(ListReads.interceptor());
+                        builder.addInterceptor(pool.interceptor());
+                        builder.addNetworkInterceptor(Metrics.networkInterceptor());
+                    }
+                }).withBaseUrl(pool.primary().baseUrl());
     }
 
     /**
@@ -95,18 +231,69 @@ public class Samples {
                 }
             }
 
-            ContentModeratorClientImpl client  = Samples.getClient(apiKey);
+            if(Tier == null) {
+                Tier = RateLimiter.Tier.parse(System.getenv("AZURE_CONTENT_MODERATOR_TIER"));
+            }
+
+            if(CallbackUrl == null) {
+                CallbackUrl = System.getenv("AZURE_CONTENT_MODERATOR_CALLBACK_URL");
+            }
+
+            if(Endpoints == null) {
+                Endpoints = System.getenv("AZURE_CONTENT_MODERATOR_ENDPOINTS");
+            }
+
+            Closeable reporter = Metrics.startReporter(MetricsReportSeconds, TimeUnit.SECONDS, System.out);
+            ContentModeratorClientImpl client;
+            ContentModeratorClientImpl interactiveClient;
+            if(Endpoints != null) {
+                List<ClientPool.Endpoint> endpoints = new ArrayList<ClientPool.Endpoint>();
+                endpoints.add(new ClientPool.Endpoint(
+                        "https://westus.api.cognitive.microsoft.com", apiKey, RateLimiter.forTier(Tier)));
+                List<ClientPool.Endpoint> extra = ClientPool.parse(Endpoints, Tier);
+                if(HedgePercentile > 0 && !extra.isEmpty()) {
+                    ClientPool.Endpoint hedgeEndpoint = extra.remove(0);
+                    Hedging = new HedgedCalls(
+                            Samples.getClient(new ClientPool(Collections.singletonList(hedgeEndpoint), true)),
+                            HedgePercentile,
+                            HedgeBudget);
+                    System.out.println("Hedging slow calls through " + hedgeEndpoint.name() + ".");
+                }
+                endpoints.addAll(extra);
+                client = Samples.getClient(new ClientPool(endpoints));
+                interactiveClient = client;
+            } else {
+                RequestScheduler scheduler = new RequestScheduler(RateLimiter.forTier(Tier));
+                client = Samples.getClient(apiKey,
+                        scheduler.lane("bulk", 1, 0, TimeUnit.MILLISECONDS));
+                interactiveClient = Samples.getClient(apiKey,
+                        scheduler.lane("interactive", InteractiveWeight, InteractiveDeadlineMillis, TimeUnit.MILLISECONDS));
+            }
+            if(HedgePercentile > 0 && Hedging == null) {
+                System.out.println("Hedging is disabled: it needs another key or region in Endpoints.");
+            }
             ImageJobs.execute(client);
             ImageList.execute(client);
             //Please view sample and create required files before uncommenting.
             //ImageModeration.execute(client);
+            //ImageModeration.executeConcurrently(client);
+            //ImageModeration.executeFiles(client);
             ImageReviews.execute(client);
             TermList.execute(client);
             //Please view sample and create required files before uncommenting.
-            //TextModeration.execute(client);
+            //TextModeration.execute(interactiveClient);
             VideoReviews.execute(client);
             VideoTranscriptReviews.execute(client);
 
+            reporter.close();
+            System.out.println(Metrics.snapshot());
+            System.out.println("List reads answered from the cache: " + ListReads.hits()
+                    + ", sent to the service: " + ListReads.misses());
+            if(Hedging != null) {
+                System.out.println("Hedged calls: " + Hedging.hedged() + " of " + Hedging.calls()
+                        + ", answered first by the hedge: " + Hedging.hedgesWon());
+                Hedging.close();
+            }
         } catch (Exception e) {
             System.out.println(e.getMessage());
             e.printStackTrace();
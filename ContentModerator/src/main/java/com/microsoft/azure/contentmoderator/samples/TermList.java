@@ -5,6 +5,15 @@ import com.microsoft.azure.cognitiveservices.contentmoderator.TermsData;
 import com.microsoft.azure.cognitiveservices.contentmoderator.TermsInList;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.*;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 public class TermList {
     // NOTE: Replace this with the appropriate language for your region.
     /*
@@ -13,16 +22,27 @@ public class TermList {
     private static final String lang = "eng";
 
     /*
-     * The minimum amount of time, in milliseconds, to wait between calls
-     * to the Content Moderator APIs.
+     * The longest time, in minutes, to wait after updating the search index
+     * before performing image match operations against a the list.
+     * The wait ends as soon as a probe shows the index has propagated.
      */
-    private static final int throttleRate = 3000;
+    private static final double latencyDelay = 0.5;
 
     /*
-     * The number of minutes to delay after updating the search index before
-     * performing image match operations against a the list.
+     * Local copies of the term lists, kept in step with the terms this
+     * sample adds and deletes, used to screen text without calling the
+     * service when only term list matches are needed.
+     * Indexed by list ID.
      */
-    private static final double latencyDelay = 0.5;
+    private static final ConcurrentHashMap<String, LocalTermList> LocalLists =
+            new ConcurrentHashMap<String, LocalTermList>();
+
+    /*
+     * The number of terms to add or delete at the same time when syncing a
+     * term list, and the number of times to try each call.
+     */
+    private static final int SyncWorkers = 8;
+    private static final int SyncMaxAttempts = 3;
 
     /*
      * Creates a new term list.
@@ -44,7 +64,7 @@ public class TermList {
             String list_id = list.id().toString();
             System.out.println(
                     String.format("Term list created. ID: %s.", list_id));
-            Thread.sleep(throttleRate);
+            LocalLists.put(list_id, new LocalTermList());
             return list_id;
         }
     }
@@ -56,14 +76,13 @@ public class TermList {
      * @param name The new name for the term list.
      * @param description The new description for the term list.
      */
-    static void UpdateTermList (ContentModeratorClientImpl client, String list_id, String name, String description) throws InterruptedException {
+    static void UpdateTermList (ContentModeratorClientImpl client, String list_id, String name, String description) {
         System.out.println(
                 String.format("Updating information for term list with ID %s.", list_id));
         BodyInner body = new BodyInner();
         body.withName(name);
         body.withDescription(description);
         client.listManagementTermLists().update(list_id, "application/json", body);
-        Thread.sleep(throttleRate);
     }
 
     /*
@@ -72,11 +91,15 @@ public class TermList {
      * @param list_id The ID of the term list to update.
      * @param term The term to add to the term list.
      */
-    static void AddTerm (ContentModeratorClientImpl client, String list_id, String term) throws InterruptedException {
+    static void AddTerm (ContentModeratorClientImpl client, String list_id, String term) {
         System.out.println(
                 String.format("Adding term \"%s\" to term list with ID %s.", term, list_id));
         client.listManagementTerms().addTerm(list_id, term, lang);
-        Thread.sleep(throttleRate);
+        LocalTermList local = LocalLists.get(list_id);
+        if (local != null)
+        {
+            local.add(term);
+        }
     }
 
     /*
@@ -84,46 +107,96 @@ public class TermList {
      * @param client The Content Moderator client.
      * @param list_id The ID of the term list from which to get all terms.
      */
-    static void GetAllTerms(ContentModeratorClientImpl client, String list_id) throws InterruptedException {
+    static void GetAllTerms(ContentModeratorClientImpl client, String list_id) {
         System.out.println(
                 String.format("Getting terms in term list with ID %s.", list_id));
         TermsInner terms = client.listManagementTerms().getAllTerms(list_id, lang);
         TermsData data = terms.data();
+        List<String> allTerms = new ArrayList<String>();
         for (TermsInList term : data.terms())
         {
             System.out.println(term.term());
+            allTerms.add(term.term());
+        }
+        LocalTermList local = LocalLists.get(list_id);
+        if (local != null)
+        {
+            local.replaceAll(allTerms);
         }
-        Thread.sleep(throttleRate);
     }
 
     /*
-     * Refresh the search index for the indicated term list.
+     * Refresh the search index for the indicated term list, then wait until
+     * screening a known term shows that the refreshed index is in use.
      * @param client The Content Moderator client.
      * @param list_id The ID of the term list to refresh.
+     * @param probe_term The term to screen while waiting.
+     * @param expect_match Whether the term should be detected once the index is ready.
      */
-    static void RefreshSearchIndex (ContentModeratorClientImpl client, String list_id) throws InterruptedException {
+    static void RefreshSearchIndex (ContentModeratorClientImpl client, String list_id,
+                                    String probe_term, boolean expect_match) throws InterruptedException {
         System.out.println(
                 String.format("Refreshing search index for term list with ID %s.", list_id));
         client.listManagementTermLists().refreshIndexMethod(list_id, lang);
-        Thread.sleep((int)(latencyDelay * 60 * 1000));
+
+        long start = System.currentTimeMillis();
+        boolean ready = IndexReadiness.await(
+                IndexReadiness.termMatch(client, list_id, lang, probe_term, expect_match),
+                (long) (latencyDelay * 60 * 1000),
+                TimeUnit.MILLISECONDS);
+        System.out.println(ready
+                ? String.format("Search index ready after %d ms.", System.currentTimeMillis() - start)
+                : "Search index not confirmed ready; continuing.");
+    }
+
+    /*
+     * Screen the indicated text for terms in the indicated term list.
+     * @param client The Content Moderator client.
+     * @param list_id The ID of the term list to use to screen the text.
+     * @param text The text to screen.
+     */
+    static void ScreenText (ContentModeratorClientImpl client, String list_id, String text) {
+        ScreenText(client, list_id, text, false, false);
     }
 
     /*
      * Screen the indicated text for terms in the indicated term list.
+     * When neither classification nor PII detection is requested and a
+     * local copy of the term list exists, the text is screened locally and
+     * the service is not called.
      * @param client The Content Moderator client.
      * @param list_id The ID of the term list to use to screen the text.
      * @param text The text to screen.
+     * @param classify Whether to classify the text.
+     * @param pii Whether to detect personally identifying information.
      */
-    static void ScreenText (ContentModeratorClientImpl client, String list_id, String text) throws InterruptedException {
+    static void ScreenText (ContentModeratorClientImpl client, String list_id, String text,
+                            boolean classify, boolean pii) {
         System.out.println(
                 String.format("Screening text: \"%s\" using term list with ID %s.", text, list_id));
+        LocalTermList local = LocalLists.get(list_id);
+        if (local != null && !classify && !pii)
+        {
+            List<AhoCorasick.Match> matches = local.screen(text);
+            if (matches.isEmpty())
+            {
+                System.out.println("No terms from the term list were detected in the text.");
+            }
+            for (AhoCorasick.Match match : matches)
+            {
+                System.out.println(String.format("Found term: \"%s\" from list ID %s at index %d.", match.Term,
+                        list_id, match.Index));
+            }
+            return;
+        }
+
         ScreenInner screen = client.textModerations().screenText(lang,
                 "text/plain",
                 text,
                 false,
-                false,
+                pii,
                 list_id,
-                false);
+                classify);
         if (null == screen.terms())
         {
             System.out.println("No terms from the term list were detected in the text.");
@@ -136,7 +209,6 @@ public class TermList {
                         term.listId(), term.index()));
             }
         }
-        Thread.sleep(throttleRate);
     }
 
     /*
@@ -145,11 +217,15 @@ public class TermList {
      * @param list_id The ID of the term list from which to delete the term.
      * @param term The term to delete.
      */
-    static void DeleteTerm (ContentModeratorClientImpl client, String list_id, String term) throws InterruptedException {
+    static void DeleteTerm (ContentModeratorClientImpl client, String list_id, String term) {
         System.out.println(
                 String.format("Removed term \"%s\" from term list with ID %s.", term, list_id));
         client.listManagementTerms().deleteTerm(list_id, term, lang);
-        Thread.sleep(throttleRate);
+        LocalTermList local = LocalLists.get(list_id);
+        if (local != null)
+        {
+            local.remove(term);
+        }
     }
 
     /*
@@ -157,11 +233,41 @@ public class TermList {
      * @param client The Content Moderator client.
      * @param list_id The ID of the term list from which to delete all terms.
      */
-    static void DeleteAllTerms (ContentModeratorClientImpl client, String list_id) throws InterruptedException {
+    static void DeleteAllTerms (ContentModeratorClientImpl client, String list_id) {
         System.out.println(
                 String.format("Removing all terms from term list with ID %s.", list_id));
         client.listManagementTerms().deleteAllTerms(list_id, lang);
-        Thread.sleep(throttleRate);
+        LocalTermList local = LocalLists.get(list_id);
+        if (local != null)
+        {
+            local.clear();
+        }
+    }
+
+    /*
+     * Makes a term list match a file of desired terms, one term per line,
+     * adding only the missing terms and deleting only the extra ones. The
+     * file is streamed rather than read into memory, and the search index
+     * is refreshed once when the sync is done.
+     * @param client The Content Moderator client.
+     * @param list_id The ID of the term list to sync.
+     * @param term_file The path of the file of desired terms.
+     */
+    static void SyncTerms (ContentModeratorClientImpl client, String list_id, String term_file)
+            throws IOException, InterruptedException {
+        System.out.println(
+                String.format("Syncing term list with ID %s with %s.", list_id, term_file));
+        TermListSync sync = new TermListSync(client, lang, SyncWorkers, SyncMaxAttempts);
+        TermListSync.Report report;
+        try (BufferedReader terms = new BufferedReader(new FileReader(new File(term_file)))) {
+            report = sync.sync(list_id, terms, LocalLists.get(list_id));
+        }
+        System.out.println(String.format("Added %d, deleted %d and kept %d terms.",
+                report.Added.get(), report.Deleted.get(), report.Unchanged.get()));
+        for (TermListSync.Failure failure : report.Failures) {
+            System.out.println(String.format("Unable to %s term %s: %s",
+                    failure.Adding ? "add" : "delete", failure.Term, failure.Message));
+        }
     }
 
     /*
@@ -169,11 +275,11 @@ public class TermList {
      * <param name="client">The Content Moderator client.</param>
      * <param name="list_id">The ID of the term list to delete.</param>
      */
-    static void DeleteTermList (ContentModeratorClientImpl client, String list_id) throws InterruptedException {
+    static void DeleteTermList (ContentModeratorClientImpl client, String list_id) {
         System.out.println(
                 String.format("Deleting term list with ID %s.", list_id));
         client.listManagementTermLists().delete(list_id);
-        Thread.sleep(throttleRate);
+        LocalLists.remove(list_id);
     }
 
     static void execute(ContentModeratorClientImpl client) throws Exception {
@@ -186,7 +292,7 @@ public class TermList {
             GetAllTerms(client, list_id);
 
             // Always remember to refresh the search index of your list
-            RefreshSearchIndex(client, list_id);
+            RefreshSearchIndex(client, list_id, "term1", true);
 
             String text = "This text contains the terms \"term1\" and \"term2\".";
             ScreenText(client, list_id, text);
@@ -194,7 +300,7 @@ public class TermList {
             DeleteTerm(client, list_id, "term1");
 
             // Always remember to refresh the search index of your list
-            RefreshSearchIndex(client, list_id);
+            RefreshSearchIndex(client, list_id, "term1", false);
 
             text = "This text contains the terms \"term1\" and \"term2\".";
             ScreenText(client, list_id, text);
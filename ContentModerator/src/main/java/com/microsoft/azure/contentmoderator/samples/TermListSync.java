@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.TermsInList;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.TermsInner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings a custom term list in line with a file of desired terms.
+ * The current terms are fetched once, the desired terms are streamed from
+ * the file, and the two are compared through sets of 64-bit term hashes,
+ * so the desired terms are never held in memory as strings. Only the
+ * missing terms are added and only the extra terms are deleted, with the
+ * calls sent concurrently under the client's rate limiter. The search
+ * index is refreshed once at the end.
+ * Terms are compared ignoring case and surrounding white space.
+ */
+public class TermListSync {
+    /**
+     * Describes a term that could not be added or deleted.
+     */
+    public static class Failure {
+        /**
+         * The term.
+         */
+        public final String Term;
+
+        /**
+         * True if the term was being added, false if it was being deleted.
+         */
+        public final boolean Adding;
+
+        /**
+         * The error from the last attempt.
+         */
+        public final String Message;
+
+        Failure(String term, boolean adding, String message) {
+            this.Term = term;
+            this.Adding = adding;
+            this.Message = message;
+        }
+    }
+
+    /**
+     * The outcome of a sync.
+     */
+    public static class Report {
+        /**
+         * The number of terms added.
+         */
+        public final AtomicInteger Added = new AtomicInteger();
+
+        /**
+         * The number of terms deleted.
+         */
+        public final AtomicInteger Deleted = new AtomicInteger();
+
+        /**
+         * The number of desired terms already in the list.
+         */
+        public final AtomicInteger Unchanged = new AtomicInteger();
+
+        /**
+         * The terms that could not be added or deleted.
+         */
+        public final Queue<Failure> Failures = new ConcurrentLinkedQueue<Failure>();
+    }
+
+    /*
+     * The number of terms to fetch per getAllTerms call.
+     */
+    private static final int pageSize = 1000;
+
+    /*
+     * The delay, in milliseconds, before the first retry of a failed call.
+     * Each later retry waits twice as long, plus random jitter.
+     */
+    private static final long retryDelay = 1000;
+
+    private final ContentModeratorClientImpl client;
+    private final String language;
+    private final int workers;
+    private final int maxAttempts;
+    private final Random random = new Random();
+
+    /**
+     * Creates a term list sync.
+     * @param client the Content Moderator client.
+     * @param language the language of the terms.
+     * @param workers the number of add and delete calls to have in flight.
+     * @param maxAttempts the number of times to send each call.
+     */
+    public TermListSync(ContentModeratorClientImpl client, String language, int workers, int maxAttempts) {
+        this.client = client;
+        this.language = language;
+        this.workers = workers;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Syncs a term list with the desired terms.
+     * @param listId the ID of the term list.
+     * @param desiredTerms the desired terms, one per line; blank lines are skipped.
+     * @param local a local copy of the list to keep in step, or null.
+     * @return the outcome of the sync.
+     */
+    public Report sync(final String listId, BufferedReader desiredTerms, final LocalTermList local)
+            throws IOException, InterruptedException {
+        final Report report = new Report();
+
+        // Fetch the current terms once.
+        List<String> current = new ArrayList<String>();
+        LongHashSet currentHashes = new LongHashSet();
+        for (int offset = 0; ; offset += pageSize) {
+            TermsInner page = client.listManagementTerms().getAllTerms(listId, language, offset, pageSize);
+            List<TermsInList> terms = page.data() != null ? page.data().terms() : null;
+            if (terms == null || terms.isEmpty()) {
+                break;
+            }
+            for (TermsInList term : terms) {
+                current.add(term.term());
+                currentHashes.add(hash(term.term()));
+            }
+            if (terms.size() < pageSize) {
+                break;
+            }
+        }
+
+        final Semaphore pending = new Semaphore(workers * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            // Stream the desired terms, adding those the list lacks.
+            LongHashSet desiredHashes = new LongHashSet();
+            String line;
+            while ((line = desiredTerms.readLine()) != null) {
+                final String term = line.trim();
+                if (term.length() == 0) {
+                    continue;
+                }
+                long h = hash(term);
+                if (!desiredHashes.add(h)) {
+                    continue;
+                }
+                if (currentHashes.contains(h)) {
+                    report.Unchanged.incrementAndGet();
+                    continue;
+                }
+                submit(pool, pending, report, local, listId, term, true);
+            }
+
+            // Delete the current terms that are not desired.
+            for (String term : current) {
+                if (!desiredHashes.contains(hash(term))) {
+                    submit(pool, pending, report, local, listId, term, false);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        if (report.Added.get() > 0 || report.Deleted.get() > 0) {
+            client.listManagementTermLists().refreshIndexMethod(listId, language);
+        }
+        return report;
+    }
+
+    private void submit(
+            ExecutorService pool,
+            final Semaphore pending,
+            final Report report,
+            final LocalTermList local,
+            final String listId,
+            final String term,
+            final boolean adding) throws InterruptedException {
+        pending.acquire();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    apply(listId, term, adding, report, local);
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    private void apply(String listId, String term, boolean adding, Report report, LocalTermList local) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (adding) {
+                    client.listManagementTerms().addTerm(listId, term, language);
+                    report.Added.incrementAndGet();
+                    if (local != null) {
+                        local.add(term);
+                    }
+                } else {
+                    client.listManagementTerms().deleteTerm(listId, term, language);
+                    report.Deleted.incrementAndGet();
+                    if (local != null) {
+                        local.remove(term);
+                    }
+                }
+                return;
+            } catch (RuntimeException ex) {
+                if (attempt >= maxAttempts || !ImageIngestion.isTransient(ex)) {
+                    report.Failures.add(new Failure(term, adding, String.valueOf(ex.getMessage())));
+                    return;
+                }
+                try {
+                    long backoff = retryDelay << (attempt - 1);
+                    Thread.sleep(backoff + (long) (random.nextDouble() * backoff));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    report.Failures.add(new Failure(term, adding, "Interrupted."));
+                    return;
+                }
+            }
+        }
+    }
+
+    /*
+     * A 64-bit FNV-1a hash of the normalized term.
+     */
+    static long hash(String term) {
+        String normalized = term.trim().toLowerCase(Locale.ROOT);
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            h ^= normalized.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /*
+     * A set of longs in an open-addressing table, for hashes of terms.
+     */
+    static final class LongHashSet {
+        private static final long Empty = 0;
+
+        private long[] slots = new long[1024];
+        private int size;
+
+        boolean add(long value) {
+            if (value == Empty) {
+                value = 1;
+            }
+            if ((size + 1) * 2 > slots.length) {
+                grow();
+            }
+            int slot = find(slots, value);
+            if (slots[slot] == value) {
+                return false;
+            }
+            slots[slot] = value;
+            size++;
+            return true;
+        }
+
+        boolean contains(long value) {
+            if (value == Empty) {
+                value = 1;
+            }
+            return slots[find(slots, value)] == value;
+        }
+
+        private static int find(long[] table, long value) {
+            int mask = table.length - 1;
+            int slot = (int) (value ^ (value >>> 32)) & mask;
+            while (table[slot] != Empty && table[slot] != value) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            for (long value : old) {
+                if (value != Empty) {
+                    slots[find(slots, value)] = value;
+                }
+            }
+        }
+    }
+}
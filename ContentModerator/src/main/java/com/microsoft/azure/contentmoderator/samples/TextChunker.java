@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a text read from a stream into chunks no longer than a size cap.
+ * Chunks end at the last sentence boundary that fits, or failing that at
+ * the last white space, so words are not split between chunks. Only one
+ * chunk's worth of text is held at a time, whatever the size of the text.
+ * Line breaks are replaced with spaces, one for one, so an offset within a
+ * chunk plus the chunk's offset is the offset in the original text.
+ */
+public class TextChunker {
+    /**
+     * A piece of the text.
+     */
+    public static class Chunk {
+        /**
+         * The offset of the chunk's first character in the original text.
+         */
+        public final int Offset;
+
+        /**
+         * The text of the chunk.
+         */
+        public final String Text;
+
+        Chunk(int offset, String text) {
+            this.Offset = offset;
+            this.Text = text;
+        }
+    }
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int length;
+    private int offset;
+    private boolean endOfText;
+
+    /**
+     * Creates a chunker.
+     * @param reader the text to split.
+     * @param maxChars the longest chunk, in characters.
+     */
+    public TextChunker(Reader reader, int maxChars) {
+        if (maxChars < 2) {
+            throw new IllegalArgumentException("maxChars must be at least 2.");
+        }
+        this.reader = reader;
+        this.buffer = new char[maxChars];
+    }
+
+    /**
+     * Reads the next chunk. Chunks that are only white space are skipped.
+     * @return the next chunk, or null at the end of the text.
+     */
+    public Chunk next() throws IOException {
+        while (true) {
+            fill();
+            if (length == 0) {
+                return null;
+            }
+
+            int cut = endOfText ? length : findCut();
+            char[] text = new char[cut];
+            boolean blank = true;
+            for (int i = 0; i < cut; i++) {
+                char c = buffer[i];
+                if (c == '\r' || c == '\n') {
+                    c = ' ';
+                }
+                if (!Character.isWhitespace(c)) {
+                    blank = false;
+                }
+                text[i] = c;
+            }
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+            int chunkOffset = offset;
+            offset += cut;
+
+            if (!blank) {
+                return new Chunk(chunkOffset, new String(text));
+            }
+        }
+    }
+
+    private void fill() throws IOException {
+        while (!endOfText && length < buffer.length) {
+            int read = reader.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                endOfText = true;
+            } else {
+                length += read;
+            }
+        }
+    }
+
+    /*
+     * Finds where to end a full buffer: after the last sentence end or line
+     * break, else after the last white space, else at the end of the buffer.
+     */
+    private int findCut() {
+        for (int i = length - 1; i > 0; i--) {
+            char c = buffer[i];
+            if (c == '\n') {
+                return i + 1;
+            }
+            if (Character.isWhitespace(c)) {
+                char previous = buffer[i - 1];
+                if (previous == '.' || previous == '!' || previous == '?') {
+                    return i + 1;
+                }
+            }
+        }
+        for (int i = length - 1; i > 0; i--) {
+            if (Character.isWhitespace(buffer[i])) {
+                return i + 1;
+            }
+        }
+        return Character.isHighSurrogate(buffer[length - 1]) ? length - 1 : length;
+    }
+}
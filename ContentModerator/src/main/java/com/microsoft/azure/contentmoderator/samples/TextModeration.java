@@ -1,5 +1,7 @@
 package com.microsoft.azure.contentmoderator.samples;
 
+import com.microsoft.azure.cognitiveservices.contentmoderator.Classification;
+import com.microsoft.azure.cognitiveservices.contentmoderator.DetectedTerms;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ScreenInner;
 
@@ -13,29 +15,64 @@ public class TextModeration {
      */
     private static String TextFile = "TextFile.txt";
 
-    static void execute(ContentModeratorClientImpl client) throws IOException {
-
-        String text = Samples.readFileContents(TextFile);
+    /*
+     * The number of text chunks to screen at the same time.
+     */
+    private static final int ScreeningWorkers = 4;
 
-        text = text.replaceAll(System.lineSeparator(), " ");
+    static void execute(ContentModeratorClientImpl client) throws IOException, InterruptedException {
 
-        // Screen the input text: check for profanity,
-        // do autocorrect text, and check for personally identifying
-        // information (PII)
+        // Screen the input text in chunks that fit in a single call: check
+        // for profanity, normalize the text and autocorrect typos.
+        // The file is streamed, so documents of any size can be screened.
         System.out.println("Normalize text and autocorrect typos.");
-        ScreenInner result =
-                client.textModerations().screenText("eng", "text/plain", text);
-        System.out.println("Response:");
-        System.out.println("Tracking Id: " + result.trackingId());
-        System.out.println("Status: " + result.status().description());
-        System.out.println("Auto corrected text: " + result.autoCorrectedText());
-        if(result.classification() != null) {
-            System.out.println("Classification: ");
-            System.out.println("    Adult score: " + result.classification().adultScore());
-            System.out.println("    Offensive score: " + result.classification().offensiveScore());
-            System.out.println("    Racy score: " + result.classification().racyScore());
-            System.out.println("    Review recommended: " + result.classification().reviewRecommended());
+        final Classification worst = new Classification();
+        final boolean[] reviewRecommended = new boolean[1];
+        int chunks;
+        try (BufferedReader text = new BufferedReader(new FileReader(new File(TextFile)))) {
+            ChunkedScreening screening =
+                    new ChunkedScreening(client, "eng", true, null, true, ScreeningWorkers)
+                            .withHedging(Samples.Hedging);
+            chunks = screening.screen(text, new ChunkedScreening.Listener() {
+                @Override
+                public void onScreened(TextChunker.Chunk chunk, ScreenInner result) {
+                    System.out.println("Response for characters " + chunk.Offset + " to "
+                            + (chunk.Offset + chunk.Text.length()) + ":");
+                    System.out.println("Tracking Id: " + result.trackingId());
+                    System.out.println("Status: " + result.status().description());
+                    System.out.println("Auto corrected text: " + result.autoCorrectedText());
+                    if (result.terms() != null) {
+                        for (DetectedTerms term : result.terms()) {
+                            System.out.println("Term: " + term.term() + " at " + term.originalIndex());
+                        }
+                    }
+                    if (result.classification() != null) {
+                        worst.withAdultScore(max(worst.adultScore(), result.classification().adultScore()));
+                        worst.withOffensiveScore(max(worst.offensiveScore(), result.classification().offensiveScore()));
+                        worst.withRacyScore(max(worst.racyScore(), result.classification().racyScore()));
+                        if (Boolean.TRUE.equals(result.classification().reviewRecommended())) {
+                            reviewRecommended[0] = true;
+                        }
+                    }
+                }
+            });
+        }
+
+        System.out.println("Screened " + chunks + " chunk(s).");
+        if (worst.adultScore() != null) {
+            System.out.println("Classification (highest score in any chunk): ");
+            System.out.println("    Adult score: " + worst.adultScore());
+            System.out.println("    Offensive score: " + worst.offensiveScore());
+            System.out.println("    Racy score: " + worst.racyScore());
+            System.out.println("    Review recommended: " + reviewRecommended[0]);
+        }
+    }
+
+    private static Double max(Double a, Double b) {
+        if (a == null) {
+            return b;
         }
+        return b == null ? a : Math.max(a, b);
     }
 
 }
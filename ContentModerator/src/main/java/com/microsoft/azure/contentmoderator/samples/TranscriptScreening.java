@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import com.microsoft.azure.cognitiveservices.contentmoderator.DetectedTerms;
+import com.microsoft.azure.cognitiveservices.contentmoderator.TranscriptModerationBodyItemTermsItem;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ScreenInner;
+import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.TranscriptModerationBodyItemInner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Screens a WebVTT transcript cue by cue.
+ * Cues are read from the stream one at a time and packed into screenText
+ * calls of up to {@link ChunkedScreening#MaxChunkChars} characters, and the
+ * calls are sent concurrently. Each detected term is traced back to the cue
+ * it came from, so the moderation result for a cue carries that cue's start
+ * time and the term's offset within the cue text. Cues longer than one call
+ * are split at white space.
+ */
+public class TranscriptScreening {
+    /**
+     * Receives the moderation result for each cue with detected terms.
+     */
+    public interface Listener {
+        /**
+         * Called, on the thread that called {@link #screen}, in transcript
+         * order.
+         * @param result the cue's start time, in milliseconds, and terms.
+         */
+        void onScreened(TranscriptModerationBodyItemInner result);
+    }
+
+    /*
+     * A cue, or part of a long cue, within the text of one call.
+     */
+    private static final class Segment {
+        final WebVttReader.Cue cue;
+        final int offsetInCue;
+        final int offsetInBatch;
+        final int length;
+
+        Segment(WebVttReader.Cue cue, int offsetInCue, int offsetInBatch, int length) {
+            this.cue = cue;
+            this.offsetInCue = offsetInCue;
+            this.offsetInBatch = offsetInBatch;
+            this.length = length;
+        }
+    }
+
+    private final ContentModeratorClientImpl client;
+    private final String language;
+    private final String listId;
+    private final int workers;
+
+    /**
+     * Creates a transcript screening engine.
+     * @param client the Content Moderator client.
+     * @param language the language of the transcript.
+     * @param listId the ID of a term list to screen against, or null.
+     * @param workers the number of screenText calls to have in flight.
+     */
+    public TranscriptScreening(ContentModeratorClientImpl client, String language, String listId, int workers) {
+        this.client = client;
+        this.language = language;
+        this.listId = listId;
+        this.workers = workers;
+    }
+
+    /**
+     * Screens a transcript, returning once every cue has been screened.
+     * @param transcript the WebVTT transcript.
+     * @param listener receives the result for each cue with detected terms.
+     * @return the number of cues screened.
+     */
+    public int screen(BufferedReader transcript, Listener listener) throws IOException, InterruptedException {
+        WebVttReader reader = new WebVttReader(transcript);
+        Deque<Future<List<TranscriptModerationBodyItemInner>>> results =
+                new ArrayDeque<Future<List<TranscriptModerationBodyItemInner>>>();
+        int maxInFlight = workers * 2;
+        int cues = 0;
+
+        List<Segment> segments = new ArrayList<Segment>();
+        StringBuilder text = new StringBuilder();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            WebVttReader.Cue cue;
+            while ((cue = reader.next()) != null) {
+                cues++;
+                for (Segment piece : split(cue)) {
+                    int separator = text.length() > 0 ? 1 : 0;
+                    if (text.length() + separator + piece.length > ChunkedScreening.MaxChunkChars) {
+                        if (results.size() >= maxInFlight) {
+                            deliver(results.poll(), listener);
+                        }
+                        results.add(pool.submit(screenBatch(text.toString(), segments)));
+                        segments = new ArrayList<Segment>();
+                        text.setLength(0);
+                        separator = 0;
+                    }
+                    if (separator > 0) {
+                        text.append('\n');
+                    }
+                    segments.add(new Segment(piece.cue, piece.offsetInCue, text.length(), piece.length));
+                    text.append(piece.cue.Text, piece.offsetInCue, piece.offsetInCue + piece.length);
+                }
+            }
+            if (text.length() > 0) {
+                results.add(pool.submit(screenBatch(text.toString(), segments)));
+            }
+            while (!results.isEmpty()) {
+                deliver(results.poll(), listener);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return cues;
+    }
+
+    /*
+     * Splits a cue into pieces that each fit in one call.
+     */
+    private static List<Segment> split(WebVttReader.Cue cue) throws IOException {
+        List<Segment> pieces = new ArrayList<Segment>();
+        if (cue.Text.length() <= ChunkedScreening.MaxChunkChars) {
+            if (cue.Text.trim().length() > 0) {
+                pieces.add(new Segment(cue, 0, 0, cue.Text.length()));
+            }
+            return pieces;
+        }
+        TextChunker chunker = new TextChunker(new StringReader(cue.Text), ChunkedScreening.MaxChunkChars);
+        TextChunker.Chunk chunk;
+        while ((chunk = chunker.next()) != null) {
+            pieces.add(new Segment(cue, chunk.Offset, 0, chunk.Text.length()));
+        }
+        return pieces;
+    }
+
+    private Callable<List<TranscriptModerationBodyItemInner>> screenBatch(
+            final String text,
+            final List<Segment> segments) {
+        return new Callable<List<TranscriptModerationBodyItemInner>>() {
+            @Override
+            public List<TranscriptModerationBodyItemInner> call() {
+                ScreenInner screen = client.textModerations().screenText(
+                        language,
+                        "text/plain",
+                        text,
+                        false,
+                        false,
+                        listId,
+                        false);
+
+                // Group the terms by the cue they were found in.
+                Map<WebVttReader.Cue, List<TranscriptModerationBodyItemTermsItem>> terms =
+                        new LinkedHashMap<WebVttReader.Cue, List<TranscriptModerationBodyItemTermsItem>>();
+                if (screen.terms() != null) {
+                    for (DetectedTerms term : screen.terms()) {
+                        Integer index = term.originalIndex() != null ? term.originalIndex() : term.index();
+                        Segment segment = index != null ? find(segments, index) : null;
+                        if (segment == null) {
+                            continue;
+                        }
+                        List<TranscriptModerationBodyItemTermsItem> cueTerms = terms.get(segment.cue);
+                        if (cueTerms == null) {
+                            cueTerms = new ArrayList<TranscriptModerationBodyItemTermsItem>();
+                            terms.put(segment.cue, cueTerms);
+                        }
+                        cueTerms.add(new TranscriptModerationBodyItemTermsItem()
+                                .withIndex(segment.offsetInCue + index - segment.offsetInBatch)
+                                .withTerm(term.term()));
+                    }
+                }
+
+                List<TranscriptModerationBodyItemInner> results = new ArrayList<TranscriptModerationBodyItemInner>();
+                for (Segment segment : segments) {
+                    List<TranscriptModerationBodyItemTermsItem> cueTerms = terms.remove(segment.cue);
+                    if (cueTerms != null) {
+                        results.add(new TranscriptModerationBodyItemInner()
+                                .withTimestamp(String.valueOf(segment.cue.Start))
+                                .withTerms(cueTerms));
+                    }
+                }
+                return results;
+            }
+        };
+    }
+
+    /*
+     * Finds the segment that contains an offset in the text of a call.
+     */
+    private static Segment find(List<Segment> segments, int index) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Segment segment = segments.get(middle);
+            if (index < segment.offsetInBatch) {
+                high = middle - 1;
+            } else if (index >= segment.offsetInBatch + segment.length) {
+                low = middle + 1;
+            } else {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private static void deliver(
+            Future<List<TranscriptModerationBodyItemInner>> results,
+            Listener listener) throws InterruptedException {
+        try {
+            for (TranscriptModerationBodyItemInner result : results.get()) {
+                listener.onScreened(result);
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+}
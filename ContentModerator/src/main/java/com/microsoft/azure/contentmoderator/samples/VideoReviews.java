@@ -5,15 +5,23 @@ import com.microsoft.azure.cognitiveservices.contentmoderator.VideoFrameBodyItem
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.*;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
 public class VideoReviews {
     /*
-     * The minimum amount of time, in milliseconds, to wait between calls
-     * to the Image List API.
+     * The largest perceptual hash distance at which a frame counts as a
+     * repeat of the last frame added, and is dropped.
      */
-    private static final int throttleRate = 2000;
+    private static final int FrameMatchDistance = 5;
+
+    /*
+     * The number of frames to send in each addVideoFrameUrl call, and the
+     * number of threads that hash frames and send the calls.
+     */
+    private static final int FramesPerRequest = 50;
+    private static final int FrameWorkers = 4;
 
     /*
      * Create a video review. For more information, see the API reference:
@@ -23,8 +31,7 @@ public class VideoReviews {
      * @param content The URL of the video to review.
      * @return The ID of the video review.
      */
-    private static String CreateReview(ContentModeratorClientImpl client, String id, String content)
-            throws InterruptedException {
+    private static String CreateReview(ContentModeratorClientImpl client, String id, String content) {
         System.out.println("Creating a video review.");
 
         List<CreateVideoReviewsBodyItemInner> body = new ArrayList<CreateVideoReviewsBodyItemInner>();
@@ -36,7 +43,6 @@ public class VideoReviews {
                 .withStatus("Unpublished");
 
         List<String> result = client.reviews().createVideoReviews(Samples.TeamName, "application/json", body);
-        Thread.sleep(throttleRate);
         // We created only one review.
         return result.get(0);
     }
@@ -79,13 +85,37 @@ public class VideoReviews {
      * @param url The URL of the video frame image.
      */
 
-    static void AddFrame(ContentModeratorClientImpl client, String review_id, String url, String timestamp_seconds) throws InterruptedException {
+    static void AddFrame(ContentModeratorClientImpl client, String review_id, String url, String timestamp_seconds) {
         System.out.println(
                 String.format("Adding a frame to the review with ID %s.", review_id));
         List<VideoFrameBodyItemInner> frames = new ArrayList<VideoFrameBodyItemInner>();
         frames.add(CreateFrameToAddToReview(url, timestamp_seconds));
         client.reviews().addVideoFrameUrl("application/json", Samples.TeamName, review_id, frames);
-        Thread.sleep(throttleRate);
+    }
+
+    /*
+     * Add a sequence of video frames to the indicated video review. Frames
+     * that look the same as the frame before them are dropped, and the rest
+     * are added several at a time.
+     * @param client The Content Moderator client.
+     * @param review_id The video review ID.
+     * @param frames The video frames, in time order.
+     */
+    static void AddFrames(ContentModeratorClientImpl client, String review_id, Iterator<VideoFrameBodyItemInner> frames)
+            throws InterruptedException {
+        System.out.println(
+                String.format("Adding frames to the review with ID %s.", review_id));
+        FrameIngestion ingestion = new FrameIngestion(
+                client, Samples.TeamName, FrameMatchDistance, FramesPerRequest, FrameWorkers);
+        FrameIngestion.Report report = ingestion.addFrames(review_id, frames);
+        System.out.println(String.format("Added %d frames in %d requests; dropped %d repeated frames.",
+                report.Added.get(), report.Requests.get(), report.Duplicates.get()));
+        for (FrameIngestion.Failure failure : report.Failures) {
+            // Frame timestamps are sent in milliseconds; report them in
+            // seconds, as the frames were given.
+            System.out.println(String.format("Unable to add the frame at %s seconds: %s",
+                    Long.parseLong(failure.Frame.timestamp()) / 1000, failure.Message));
+        }
     }
 
     /*
@@ -94,11 +124,10 @@ public class VideoReviews {
      * @param client The Content Moderator client.
      * @param review_id The video review ID.
      */
-    static void GetFrames(ContentModeratorClientImpl client, String review_id) throws InterruptedException {
+    static void GetFrames(ContentModeratorClientImpl client, String review_id) {
         System.out.println(
                 String.format("Getting frames for the review with ID %s.", review_id));
         FramesInner result = client.reviews().getVideoFrames(Samples.TeamName, review_id);
-        Thread.sleep(throttleRate);
     }
 
     /*
@@ -107,11 +136,10 @@ public class VideoReviews {
      * @param client The Content Moderator client.
      * @param review_id The video review ID.
      */
-    private static void GetReview(ContentModeratorClientImpl client, String review_id) throws InterruptedException {
+    private static void GetReview(ContentModeratorClientImpl client, String review_id) {
         System.out.println(
                 String.format("Getting the status for the review with ID %s.", review_id));
         ReviewInner result = client.reviews().getReview(Samples.TeamName, review_id);
-        Thread.sleep(throttleRate);
     }
 
     /*
@@ -120,11 +148,10 @@ public class VideoReviews {
      * @param client The Content Moderator client.
      * @param review_id The video review ID.
      */
-    private static void PublishReview(ContentModeratorClientImpl client, String review_id) throws InterruptedException {
+    private static void PublishReview(ContentModeratorClientImpl client, String review_id) {
         System.out.println(
                 String.format("Publishing the review with ID %s.", review_id));
         client.reviews().publishVideoReview(Samples.TeamName, review_id);
-        Thread.sleep(throttleRate);
     }
 
     public static void execute(ContentModeratorClientImpl client) throws InterruptedException {
@@ -137,9 +164,11 @@ public class VideoReviews {
         String frame3_url = "https://blobthebuilder.blob.core.windows.net/sampleframes/ams-video-frame-3-02-24.PNG";
 
         // Add the frames from 17, 64, and 144 seconds.
-        AddFrame(client, review_id, frame1_url, "17");
-        AddFrame(client, review_id, frame2_url, "64");
-        AddFrame(client, review_id, frame3_url, "144");
+        List<VideoFrameBodyItemInner> frames = new ArrayList<VideoFrameBodyItemInner>();
+        frames.add(CreateFrameToAddToReview(frame1_url, "17"));
+        frames.add(CreateFrameToAddToReview(frame2_url, "64"));
+        frames.add(CreateFrameToAddToReview(frame3_url, "144"));
+        AddFrames(client, review_id, frames.iterator());
 
         // Get frames information and show
         GetFrames(client, review_id);
@@ -1,21 +1,29 @@
 package com.microsoft.azure.contentmoderator.samples;
 
-import com.microsoft.azure.cognitiveservices.contentmoderator.DetectedTerms;
-import com.microsoft.azure.cognitiveservices.contentmoderator.TranscriptModerationBodyItemTermsItem;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ContentModeratorClientImpl;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.CreateVideoReviewsBodyItemInner;
-import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.ScreenInner;
 import com.microsoft.azure.cognitiveservices.contentmoderator.implementation.TranscriptModerationBodyItemInner;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
 public class VideoTranscriptReviews {
+    private static final Charset Utf8 = Charset.forName("UTF-8");
+
+    /*
+     * The number of transcript screening calls to have in flight at once.
+     */
+    private static final int ScreeningWorkers = 4;
+
     /*
-     * The minimum amount of time, in milliseconds, to wait between calls
-     * to the Image List API.
+     * The number of cue results to send in each
+     * addVideoTranscriptModerationResult call.
      */
-    private static final int throttleRate = 2000;
+    private static final int ResultsPerRequest = 100;
 
     /*
      * Create a video review. For more information, see the API reference:
@@ -25,7 +33,7 @@ public class VideoTranscriptReviews {
      * @param content The URL of the video to review.
      * @return The ID of the video review.
      */
-    private static String CreateReview(ContentModeratorClientImpl client, String id, String content) throws InterruptedException {
+    private static String CreateReview(ContentModeratorClientImpl client, String id, String content) {
         System.out.println("Creating a video review.");
         List<CreateVideoReviewsBodyItemInner> body = new ArrayList<CreateVideoReviewsBodyItemInner>();
         CreateVideoReviewsBodyItemInner item = new CreateVideoReviewsBodyItemInner()
@@ -33,7 +41,6 @@ public class VideoTranscriptReviews {
                 .withContentId(id)
                 .withStatus("Unpublished");
         List<String> result = client.reviews().createVideoReviews("application/json", Samples.TeamName, body);
-        Thread.sleep(throttleRate);
         // We created only one review.
         return result.get(0);
     }
@@ -47,11 +54,10 @@ public class VideoTranscriptReviews {
      * @param review_id The video review ID.
      * @param transcript The video transcript.
      */
-    static void AddTranscript(ContentModeratorClientImpl client, String review_id, String transcript) throws InterruptedException {
+    static void AddTranscript(ContentModeratorClientImpl client, String review_id, String transcript) {
         System.out.println(
                 String.format("Adding a transcript to the review with ID %s.", review_id));
-        client.reviews().addVideoTranscript(Samples.TeamName, review_id, review_id.getBytes());
-        Thread.sleep(throttleRate);
+        client.reviews().addVideoTranscript(Samples.TeamName, review_id, transcript.getBytes(Utf8));
     }
 
     /*
@@ -62,35 +68,46 @@ public class VideoTranscriptReviews {
      * @param review_id The video review ID.
      * @param transcript The video transcript.
      */
-    static void AddTranscriptModerationResult(ContentModeratorClientImpl client, String review_id, String transcript) throws InterruptedException {
+    static void AddTranscriptModerationResult(ContentModeratorClientImpl client, String review_id, String transcript)
+            throws IOException, InterruptedException {
+        AddTranscriptModerationResult(client, review_id, new BufferedReader(new StringReader(transcript)));
+    }
+
+    /*
+     * Add the results of moderating a video transcript to the indicated video review.
+     * The transcript is screened cue by cue as it is read, so it is never
+     * held in memory as a whole, and each result carries the start time
+     * of its cue.
+     * @param client The Content Moderator client.
+     * @param review_id The video review ID.
+     * @param transcript The video transcript.
+     */
+    static void AddTranscriptModerationResult(
+            final ContentModeratorClientImpl client,
+            final String review_id,
+            BufferedReader transcript) throws IOException, InterruptedException {
         System.out.println(
                 String.format("Adding a transcript moderation result to the review with ID %s.", review_id));
 
         // Screen the transcript using the Text Moderation API. For more information, see:
         // https://westus2.dev.cognitive.microsoft.com/docs/services/57cf753a3f9b070c105bd2c1/operations/57cf753a3f9b070868a1f66f
-        ScreenInner screen = client.textModerations().screenText("eng", "text/plain", transcript);
-
-        // Map the term list returned by ScreenText into a term list we can pass to AddVideoTranscriptModerationResult.
-        List<TranscriptModerationBodyItemTermsItem> terms = new ArrayList<TranscriptModerationBodyItemTermsItem>();
-        if (null != screen.terms())
-        {
-            for (DetectedTerms term : screen.terms())
-            {
-                if (term.index() != null)
-                {
-                    terms.add(new TranscriptModerationBodyItemTermsItem()
-                            .withIndex(term.index())
-                            .withTerm(term.term()));
+        final List<TranscriptModerationBodyItemInner> body = new ArrayList<TranscriptModerationBodyItemInner>();
+        TranscriptScreening screening = new TranscriptScreening(client, "eng", null, ScreeningWorkers);
+        int cues = screening.screen(transcript, new TranscriptScreening.Listener() {
+            @Override
+            public void onScreened(TranscriptModerationBodyItemInner result) {
+                body.add(result);
+                if (body.size() >= ResultsPerRequest) {
+                    client.reviews().addVideoTranscriptModerationResult(
+                            "application/json", Samples.TeamName, review_id, body);
+                    body.clear();
                 }
             }
+        });
+        if (!body.isEmpty()) {
+            client.reviews().addVideoTranscriptModerationResult("application/json", Samples.TeamName, review_id, body);
         }
-
-        List<TranscriptModerationBodyItemInner> body = new ArrayList<TranscriptModerationBodyItemInner>();
-        body.add(new TranscriptModerationBodyItemInner()
-                .withTimestamp("0")
-                .withTerms(terms));
-        client.reviews().addVideoTranscriptModerationResult("application/json", Samples.TeamName, review_id, body);
-        Thread.sleep(throttleRate);
+        System.out.println(String.format("Screened %d cues.", cues));
     }
 
     /*
@@ -99,14 +116,13 @@ public class VideoTranscriptReviews {
      * @param client The Content Moderator client.
      * @param review_id The video review ID.
      */
-    private static void PublishReview(ContentModeratorClientImpl client, String review_id) throws InterruptedException {
+    private static void PublishReview(ContentModeratorClientImpl client, String review_id) {
         System.out.println(
                 String.format("Publishing the review with ID %s.", review_id));
         client.reviews().publishVideoReview(Samples.TeamName, review_id);
-        Thread.sleep(throttleRate);
     }
 
-    static void execute(ContentModeratorClientImpl client) throws InterruptedException {
+    static void execute(ContentModeratorClientImpl client) throws IOException, InterruptedException {
             // Create a review with the content pointing to a streaming endpoint (manifest)
             String streamingcontent = "https://amssamples.streaming.mediaservices.windows.net/91492735-c523-432b-ba01-faba6c2206a2/AzureMediaServicesPromo.ism/manifest";
             String review_id = CreateReview(client, "review1", streamingcontent);
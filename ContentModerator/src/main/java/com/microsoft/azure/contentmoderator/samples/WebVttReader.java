@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.contentmoderator.samples;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reads the cues of a WebVTT transcript one at a time.
+ * Only the cue being read is held in memory. The WEBVTT header, NOTE,
+ * STYLE and REGION blocks, cue identifiers and cue settings are skipped,
+ * and the lines of each cue's text are joined with spaces. A timing line
+ * also ends the block before it, so transcripts that leave out the blank
+ * lines between cues are read as intended.
+ */
+public class WebVttReader {
+    /**
+     * A timed piece of the transcript.
+     */
+    public static class Cue {
+        /**
+         * The time the cue starts, in milliseconds.
+         */
+        public final long Start;
+
+        /**
+         * The time the cue ends, in milliseconds.
+         */
+        public final long End;
+
+        /**
+         * The text of the cue.
+         */
+        public final String Text;
+
+        Cue(long start, long end, String text) {
+            this.Start = start;
+            this.End = end;
+            this.Text = text;
+        }
+    }
+
+    private static final String Arrow = "-->";
+
+    private final BufferedReader reader;
+    private String pending;
+
+    /**
+     * Creates a reader.
+     * @param reader the transcript.
+     */
+    public WebVttReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next cue.
+     * @return the next cue, or null at the end of the transcript.
+     */
+    public Cue next() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            int arrow = line.indexOf(Arrow);
+            if (arrow < 0) {
+                // A header, comment, style or region block, or a cue
+                // identifier: skip the block up to the timing line.
+                if (isBlockStart(line)) {
+                    skipBlock();
+                }
+                continue;
+            }
+
+            long start = parseTime(line.substring(0, arrow).trim());
+            String rest = line.substring(arrow + Arrow.length()).trim();
+            int space = indexOfWhitespace(rest);
+            long end = parseTime(space < 0 ? rest : rest.substring(0, space));
+
+            StringBuilder text = new StringBuilder();
+            while ((line = readLine()) != null && line.trim().length() > 0) {
+                if (line.contains(Arrow)) {
+                    // The next cue, with no blank line before it.
+                    pending = line;
+                    break;
+                }
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(line.trim());
+            }
+            return new Cue(start, end, text.toString());
+        }
+        return null;
+    }
+
+    private static boolean isBlockStart(String line) {
+        return line.startsWith("WEBVTT") || line.startsWith("\uFEFFWEBVTT")
+                || line.startsWith("NOTE")
+                || line.startsWith("STYLE")
+                || line.startsWith("REGION");
+    }
+
+    private void skipBlock() throws IOException {
+        String line;
+        while ((line = readLine()) != null && line.trim().length() > 0) {
+            if (line.contains(Arrow)) {
+                pending = line;
+                return;
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        if (pending != null) {
+            String line = pending;
+            pending = null;
+            return line;
+        }
+        return reader.readLine();
+    }
+
+    private static int indexOfWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Parses a timestamp of the form [hh:]mm:ss.ttt into milliseconds.
+     */
+    static long parseTime(String timestamp) throws IOException {
+        try {
+            String[] parts = timestamp.split(":");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IOException("Invalid WebVTT timestamp: " + timestamp);
+            }
+            long hours = parts.length == 3 ? Long.parseLong(parts[0]) : 0;
+            long minutes = Long.parseLong(parts[parts.length - 2]);
+            String[] seconds = parts[parts.length - 1].split("\\.");
+            long millis = seconds.length > 1 ? Long.parseLong(seconds[1]) : 0;
+            return ((hours * 60 + minutes) * 60 + Long.parseLong(seconds[0])) * 1000 + millis;
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid WebVTT timestamp: " + timestamp, ex);
+        }
+    }
+}
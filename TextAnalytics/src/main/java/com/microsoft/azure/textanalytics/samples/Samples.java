@@ -31,11 +31,23 @@ public class Samples {
      * @return EntitySearchAPIImpl instance
      */
     public static TextAnalyticsAPIImpl getClient(final String subscriptionKey) {
+        return getClient(subscriptionKey, HttpTransport.shared());
+    }
+
+    /**
+     * Makes an instance of the TextAnalyticsAPIImpl that uses the given HTTP transport.
+     * Clients made with the same transport share its connections.
+     * @param subscriptionKey cognitive services subscription key
+     * @param transport the HTTP transport
+     * @return TextAnalyticsAPIImpl instance
+     */
+    public static TextAnalyticsAPIImpl getClient(final String subscriptionKey, final HttpTransport transport) {
         return new TextAnalyticsAPIImpl(
                 "https://westus.api.cognitive.microsoft.com/text/analytics/",
                 new ServiceClientCredentials() {
                     @Override
                     public void applyCredentialsFilter(OkHttpClient.Builder builder) {
+                        transport.apply(builder);
                         builder.addNetworkInterceptor(
                                 new Interceptor() {
                                     @Override